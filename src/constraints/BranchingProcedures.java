@@ -0,0 +1,98 @@
+package constraints;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import accrue.pdg.PDGEdge;
+import accrue.pdg.PDGEdgeType;
+import accrue.pdg.ProgramDependenceGraph;
+import accrue.pdg.node.AbstractPDGNode;
+import accrue.pdg.node.PDGNodeType;
+
+import constraints.CallSiteTable.CallSite;
+import constraints.ProcedureIndex.Procedure;
+
+/**
+ * Whether procedures, including everything they call, can branch, i.e. whether their 
+ * exit pc can differ from their entry pc. 
+ * 
+ * The check for skipping a call is non-branching plus Relevance: a call whose callee 
+ * can't branch, and none of whose results the target's guards depend on, can't 
+ * affect whether the target executes. The slice passes through it as if it were a 
+ * pc edge, without encoding the callee. No mod/ref sets are kept: a callee's effects 
+ * on abstract locations show up as return nodes of the call, so the relevance of the 
+ * return values covers them.
+ */
+public class BranchingProcedures {
+	private static Map<ProgramDependenceGraph, BranchingProcedures> results = 
+					new WeakHashMap<ProgramDependenceGraph, BranchingProcedures>();
+
+	private final List<Boolean> branches = new ArrayList<Boolean>();
+
+	public static synchronized BranchingProcedures get(ProgramDependenceGraph pdg) {
+		BranchingProcedures result = results.get(pdg);
+		if (result == null) {
+			result = new BranchingProcedures(pdg);
+			results.put(pdg, result);
+		}
+		return result;
+	}
+
+	private BranchingProcedures(ProgramDependenceGraph pdg) {
+		ProcedureIndex procedures = ProcedureIndex.get(pdg);
+		for (Procedure procedure : procedures.getProcedures()) {
+			branches.add(canBranch(procedure, pdg));
+		}
+		
+		// a procedure branches if a callee does; iterate since calls can be recursive
+		CallGraph callGraph = CallGraph.get(pdg);
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (Procedure procedure : procedures.getProcedures()) {
+				int id = procedure.getId();
+				for (int callee : callGraph.getCallees(id)) {
+					if (branches.get(callee) && !branches.get(id)) {
+						branches.set(id, true);
+						changed = true;
+					}
+				}
+			}
+		}
+	}
+
+	private static boolean canBranch(Procedure procedure, ProgramDependenceGraph pdg) {
+		for (int[] range : procedure.getNodeRanges()) {
+			for (int id = range[0]; id <= range[1]; id++) {
+				AbstractPDGNode node = pdg.getNodeById(id);
+				if (node.getNodeType() == PDGNodeType.EXCEPTION_SUMMARY) return true;
+				for (PDGEdge edge : pdg.incomingEdgesOf(node)) {
+					if ((edge.getType() == PDGEdgeType.TRUE) || (edge.getType() == PDGEdgeType.FALSE))
+						return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	public boolean canBranch(int procedureId) {
+		return branches.get(procedureId);
+	}
+
+	/**
+	 * @param valueNodes nodes whose values the target's guards depend on
+	 */
+	public boolean isIrrelevant(CallSite site, Set<Integer> valueNodes) {
+		if ((site.getCallerPC() == null) || canBranch(site.getCallee())) return false;
+		Set<Integer> returnValues = new HashSet<Integer>();
+		for (AbstractPDGNode returnValue : site.getReturnValues()) {
+			returnValues.add(returnValue.getNodeId());
+		}
+		returnValues.retainAll(valueNodes);
+		return returnValues.isEmpty();
+	}
+}
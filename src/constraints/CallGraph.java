@@ -0,0 +1,109 @@
+package constraints;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import accrue.pdg.PDGEdge;
+import accrue.pdg.ProgramDependenceGraph;
+import accrue.pdg.node.AbstractPDGNode;
+import accrue.pdg.util.CallSiteEdgeLabel.SiteType;
+
+/**
+ * The procedure call graph of a PDG, read off the labeled entry edges, with its 
+ * strongly connected components. Procedures in a component with a cycle are 
+ * recursive; their summaries are bounded, see InterProcedure.updateFuncConstraint.
+ * Procedures are identified by their ProcedureIndex ids.
+ */
+public class CallGraph {
+	private static Map<ProgramDependenceGraph, CallGraph> results = 
+					new WeakHashMap<ProgramDependenceGraph, CallGraph>();
+
+	private final Map<Integer, Set<Integer>> callees = new HashMap<Integer, Set<Integer>>();
+	private final Map<Integer, Set<Integer>> components = new HashMap<Integer, Set<Integer>>();
+	private final Set<Integer> recursive = new LinkedHashSet<Integer>();
+
+	// Tarjan's algorithm state
+	private final Map<Integer, Integer> index = new HashMap<Integer, Integer>();
+	private final Map<Integer, Integer> lowLink = new HashMap<Integer, Integer>();
+	private final List<Integer> stack = new ArrayList<Integer>();
+	private final Set<Integer> onStack = new LinkedHashSet<Integer>();
+
+	public static synchronized CallGraph get(ProgramDependenceGraph pdg) {
+		CallGraph result = results.get(pdg);
+		if (result == null) {
+			result = new CallGraph(pdg);
+			results.put(pdg, result);
+		}
+		return result;
+	}
+
+	private CallGraph(ProgramDependenceGraph pdg) {
+		ProcedureIndex procedures = ProcedureIndex.get(pdg);
+		for (int procedure = 0; procedure < procedures.size(); procedure++) {
+			callees.put(procedure, new LinkedHashSet<Integer>());
+		}
+		for (AbstractPDGNode node : pdg.vertexSet()) {
+			for (PDGEdge edge : pdg.outgoingEdgesOf(node)) {
+				if ((edge.getEdgeLabel() != null) && (edge.getEdgeLabel().getType() == SiteType.ENTRY)) 
+					callees.get(procedures.getProcedureId(node)).add(
+											procedures.getProcedureId(edge.getTarget()));
+			}
+		}
+		for (int procedure = 0; procedure < procedures.size(); procedure++) {
+			if (!index.containsKey(procedure)) connect(procedure);
+		}
+		if (PDGConstraint.debugMode && !recursive.isEmpty()) {
+			System.out.println("Recursive procedures:");
+			for (int procedure : recursive) System.out.println(procedures.getName(procedure));
+		}
+	}
+
+	private void connect(int procedure) {
+		index.put(procedure, index.size());
+		lowLink.put(procedure, index.get(procedure));
+		stack.add(procedure);
+		onStack.add(procedure);
+		
+		for (int callee : callees.get(procedure)) {
+			if (!index.containsKey(callee)) {
+				connect(callee);
+				lowLink.put(procedure, Math.min(lowLink.get(procedure), lowLink.get(callee)));
+			} else if (onStack.contains(callee)) {
+				lowLink.put(procedure, Math.min(lowLink.get(procedure), index.get(callee)));
+			}
+		}
+		
+		if (lowLink.get(procedure).equals(index.get(procedure))) {
+			Set<Integer> component = new LinkedHashSet<Integer>();
+			int member;
+			do {
+				member = stack.remove(stack.size() - 1);
+				onStack.remove(member);
+				component.add(member);
+				components.put(member, component);
+			} while (member != procedure);
+			if ((component.size() > 1) || callees.get(procedure).contains(procedure))
+				recursive.addAll(component);
+		}
+	}
+
+	public Set<Integer> getCallees(int procedure) {
+		return callees.get(procedure);
+	}
+
+	/**
+	 * @return the procedures mutually recursive with the given one, including itself
+	 */
+	public Set<Integer> getComponent(int procedure) {
+		return components.get(procedure);
+	}
+
+	public boolean isRecursive(int procedure) {
+		return recursive.contains(procedure);
+	}
+}
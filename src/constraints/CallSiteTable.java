@@ -0,0 +1,209 @@
+package constraints;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import accrue.pdg.PDGEdge;
+import accrue.pdg.ProgramDependenceGraph;
+import accrue.pdg.node.AbstractPDGNode;
+import accrue.pdg.util.CallSiteEdgeLabel;
+import accrue.pdg.util.CallSiteEdgeLabel.SiteType;
+
+/**
+ * Every call site of a PDG with the nodes taking part in it, built once from the 
+ * labeled entry and exit edges. Nodes on the caller side belong to exactly one call 
+ * site; the callee's entry and exit nodes belong to every call site of the callee.
+ */
+public class CallSiteTable {
+	private static Map<ProgramDependenceGraph, CallSiteTable> results = 
+					new WeakHashMap<ProgramDependenceGraph, CallSiteTable>();
+
+	private final Map<Integer, CallSite> sites = new LinkedHashMap<Integer, CallSite>();
+	private final Map<Integer, CallSite> callerNodeToSite = new HashMap<Integer, CallSite>();
+	private final Map<Integer, List<CallSite>> calleeNodeToSites = new HashMap<Integer, List<CallSite>>();
+
+	public static class CallSite {
+		private final int id;
+		// ProcedureIndex ids
+		private int caller;
+		private int callee;
+		// caller's pc at the call, and the callee's entry pc
+		private AbstractPDGNode callerPC;
+		private AbstractPDGNode entryPC;
+		// caller's pc after the call
+		private AbstractPDGNode returnPC;
+		private final Map<AbstractPDGNode, AbstractPDGNode> actualToFormal = 
+						new LinkedHashMap<AbstractPDGNode, AbstractPDGNode>();
+		// caller's pc and value nodes after the call, to the callee's exit nodes
+		private final Map<AbstractPDGNode, AbstractPDGNode> returnToExit = 
+						new LinkedHashMap<AbstractPDGNode, AbstractPDGNode>();
+		private final List<AbstractPDGNode> returnValues = new ArrayList<AbstractPDGNode>();
+
+		CallSite(int id) {
+			this.id = id;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		public int getCaller() {
+			return caller;
+		}
+
+		public int getCallee() {
+			return callee;
+		}
+
+		public AbstractPDGNode getCallerPC() {
+			return callerPC;
+		}
+
+		public AbstractPDGNode getEntryPC() {
+			return entryPC;
+		}
+
+		public AbstractPDGNode getReturnPC() {
+			return returnPC;
+		}
+
+		public Collection<AbstractPDGNode> getActuals() {
+			return actualToFormal.keySet();
+		}
+
+		public Collection<AbstractPDGNode> getFormals() {
+			return actualToFormal.values();
+		}
+
+		public AbstractPDGNode getFormal(AbstractPDGNode actual) {
+			return actualToFormal.get(actual);
+		}
+
+		public List<AbstractPDGNode> getReturnValues() {
+			return returnValues;
+		}
+
+		public AbstractPDGNode getExit(AbstractPDGNode returnNode) {
+			return returnToExit.get(returnNode);
+		}
+
+		/**
+		 * @return caller's return pc and return value nodes
+		 */
+		public Collection<AbstractPDGNode> getReturnNodes() {
+			return returnToExit.keySet();
+		}
+
+		/**
+		 * @return every node of the caller taking part in the call
+		 */
+		public List<AbstractPDGNode> getCallerNodes() {
+			List<AbstractPDGNode> nodes = new ArrayList<AbstractPDGNode>();
+			if (callerPC != null) nodes.add(callerPC);
+			nodes.addAll(actualToFormal.keySet());
+			nodes.addAll(returnToExit.keySet());
+			return nodes;
+		}
+	}
+
+	public static synchronized CallSiteTable get(ProgramDependenceGraph pdg) {
+		CallSiteTable result = results.get(pdg);
+		if (result == null) {
+			result = new CallSiteTable(pdg);
+			results.put(pdg, result);
+		}
+		return result;
+	}
+
+	private CallSiteTable(ProgramDependenceGraph pdg) {
+		ProcedureIndex procedures = ProcedureIndex.get(pdg);
+		List<AbstractPDGNode> returnPCs = new ArrayList<AbstractPDGNode>();
+		for (AbstractPDGNode node : pdg.vertexSet()) {
+			for (PDGEdge edge : pdg.outgoingEdgesOf(node)) {
+				CallSiteEdgeLabel label = edge.getEdgeLabel();
+				if (label == null) continue;
+				CallSite site = getOrAddSite(label.getCallSiteID());
+				AbstractPDGNode target = edge.getTarget();
+				if (label.getType() == SiteType.ENTRY) {
+					site.caller = procedures.getProcedureId(node);
+					site.callee = procedures.getProcedureId(target);
+					if (PDGHelper.isExprNode(target)) {
+						site.actualToFormal.put(node, target);
+					} else {
+						site.callerPC = node;
+						site.entryPC = target;
+					}
+					callerNodeToSite.put(node.getNodeId(), site);
+					addCalleeNode(target, site);
+				} else {
+					site.returnToExit.put(target, node);
+					if (PDGHelper.isExprNode(target)) site.returnValues.add(target);
+					else returnPCs.add(target);
+					callerNodeToSite.put(target.getNodeId(), site);
+					addCalleeNode(node, site);
+				}
+			}
+		}
+		
+		// a call may have several pc nodes after it; the return pc is the one the 
+		// return values depend on, or the only one
+		for (AbstractPDGNode returnPC : returnPCs) {
+			CallSite site = callerNodeToSite.get(returnPC.getNodeId());
+			boolean feedsValue = false;
+			for (PDGEdge edge : pdg.outgoingEdgesOf(returnPC)) {
+				if (site.returnValues.contains(edge.getTarget())) feedsValue = true;
+			}
+			if (feedsValue || (site.returnPC == null)) site.returnPC = returnPC;
+		}
+		if (PDGConstraint.debugMode) System.out.println("Call sites: " + sites.size());
+	}
+
+	private CallSite getOrAddSite(int id) {
+		CallSite site = sites.get(id);
+		if (site == null) {
+			site = new CallSite(id);
+			sites.put(id, site);
+		}
+		return site;
+	}
+
+	private void addCalleeNode(AbstractPDGNode node, CallSite site) {
+		List<CallSite> nodeSites = calleeNodeToSites.get(node.getNodeId());
+		if (nodeSites == null) {
+			nodeSites = new ArrayList<CallSite>();
+			calleeNodeToSites.put(node.getNodeId(), nodeSites);
+		}
+		if (!nodeSites.contains(site)) nodeSites.add(site);
+	}
+
+	public CallSite getSite(int callSiteID) {
+		return sites.get(callSiteID);
+	}
+
+	public Collection<CallSite> getSites() {
+		return sites.values();
+	}
+
+	/**
+	 * @return the call site a caller pc, actual, return pc or return value node takes 
+	 * part in, or null
+	 */
+	public CallSite getCallerSite(AbstractPDGNode node) {
+		return callerNodeToSite.get(node.getNodeId());
+	}
+
+	/**
+	 * @return the call sites reaching a callee's entry pc, formal or exit node
+	 */
+	public List<CallSite> getCalleeSites(AbstractPDGNode node) {
+		List<CallSite> nodeSites = calleeNodeToSites.get(node.getNodeId());
+		if (nodeSites == null) return Collections.emptyList();
+		return nodeSites;
+	}
+}
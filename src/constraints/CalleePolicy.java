@@ -0,0 +1,92 @@
+package constraints;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import accrue.pdg.ProgramDependenceGraph;
+import accrue.pdg.node.AbstractPDGNode;
+import constraints.CallSiteTable.CallSite;
+import constraints.ProcedureIndex.Procedure;
+
+/**
+ * Decides per callee whether calls are encoded through a shared function summary, 
+ * with one disjunctive entry constraint over all call sites, or by inlining a copy of 
+ * the callee's body at every call site. Inlining is more precise, since the copies 
+ * keep calling contexts apart, and cheaper for small callees; only leaf procedures 
+ * are inlined, and only while the total size of the copies stays small.
+ * 
+ * The thresholds and overrides are meant to be set per deployment; decisions are 
+ * made once per PDG and printed in debug mode.
+ */
+public class CalleePolicy {
+	public enum Choice { INLINE, SUMMARIZE }
+
+	// nodes in a callee that is still inlined
+	public static int maxInlineSize = 40;
+
+	// nodes in all copies of an inlined callee
+	public static int maxInlineTotalSize = 400;
+
+	// fixed choices by procedure name, taking precedence over the size rules; 
+	// INLINE is still only honored for leaf procedures
+	public static Map<String, Choice> overrides = new HashMap<String, Choice>();
+
+	private static Map<ProgramDependenceGraph, Map<Integer, Choice>> results = 
+					new WeakHashMap<ProgramDependenceGraph, Map<Integer, Choice>>();
+
+	public static synchronized Map<Integer, Choice> getChoices(ProgramDependenceGraph pdg) {
+		Map<Integer, Choice> choices = results.get(pdg);
+		if (choices == null) {
+			choices = decide(pdg);
+			results.put(pdg, choices);
+		}
+		return choices;
+	}
+
+	public static Choice getChoice(int procedureId, ProgramDependenceGraph pdg) {
+		return getChoices(pdg).get(procedureId);
+	}
+
+	/**
+	 * @param node a return node in a caller
+	 * @return true if the call the node takes part in is inlined
+	 */
+	public static boolean isInlined(AbstractPDGNode node, ProgramDependenceGraph pdg) {
+		CallSite site = CallSiteTable.get(pdg).getCallerSite(node);
+		return (site != null) && (site.getEntryPC() != null) && 
+				(getChoice(site.getCallee(), pdg) == Choice.INLINE);
+	}
+
+	private static Map<Integer, Choice> decide(ProgramDependenceGraph pdg) {
+		ProcedureIndex procedures = ProcedureIndex.get(pdg);
+		CallGraph callGraph = CallGraph.get(pdg);
+		Map<Integer, Integer> siteCounts = new HashMap<Integer, Integer>();
+		for (CallSite site : CallSiteTable.get(pdg).getSites()) {
+			Integer count = siteCounts.get(site.getCallee());
+			siteCounts.put(site.getCallee(), (count == null ? 0 : count) + 1);
+		}
+		
+		Map<Integer, Choice> choices = new LinkedHashMap<Integer, Choice>();
+		for (Procedure procedure : procedures.getProcedures()) {
+			Integer sites = siteCounts.get(procedure.getId());
+			if (sites == null) sites = 0;
+			boolean leaf = callGraph.getCallees(procedure.getId()).isEmpty();
+			
+			Choice choice = overrides.get(procedure.getName());
+			if (choice == null) {
+				boolean small = (procedure.size() <= maxInlineSize) && 
+									(procedure.size() * sites <= maxInlineTotalSize);
+				choice = small ? Choice.INLINE : Choice.SUMMARIZE;
+			}
+			if ((sites == 0) || !leaf) choice = Choice.SUMMARIZE;
+			choices.put(procedure.getId(), choice);
+			
+			if (PDGConstraint.debugMode && (sites > 0)) 
+				System.out.println(choice + " " + procedure.getName() + ": " + procedure.size() + 
+									" nodes, " + sites + " call sites" + (leaf ? "" : ", not a leaf"));
+		}
+		return choices;
+	}
+}
@@ -0,0 +1,151 @@
+package constraints;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import accrue.pdg.PDGEdge;
+import accrue.pdg.ProgramDependenceGraph;
+import accrue.pdg.node.AbstractPDGNode;
+
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Expr;
+import com.microsoft.z3.Model;
+import com.microsoft.z3.Solver;
+import com.microsoft.z3.Status;
+import com.microsoft.z3.Z3Exception;
+
+/**
+ * Enumerates the call sites of a node's procedure from which the node can execute. 
+ * The slice is encoded once; after each model the call-site choice variables from 
+ * InterProcedure.getEntryNodeConstraints that the model picked are blocked, until the 
+ * remaining sites are infeasible or the limit is reached.
+ * 
+ * The slice itself only encodes the entry disjunction when it reaches the procedure's 
+ * entry before any summary of it exists, so it is always encoded here, together with 
+ * the slices of every call site's caller nodes.
+ */
+public class CallingContexts {
+
+	public interface Listener {
+		/**
+		 * Called as soon as a feasible call site is found. Returning false stops the 
+		 * enumeration.
+		 */
+		public boolean contextFound(int callSiteID, AbstractPDGNode caller, Model model);
+	}
+
+	public static List<Integer> enumerate(int nodeID, ProgramDependenceGraph pdg, 
+								Context ctx, int limit) throws Z3Exception {
+		return enumerate(nodeID, pdg, ctx, limit, null);
+	}
+
+	/**
+	 * @param nodeID
+	 * @param pdg
+	 * @param ctx
+	 * @param limit maximum number of call sites to report, negative for no limit
+	 * @param listener may be null
+	 * @return the feasible call site IDs, in the order they were found
+	 * @throws Z3Exception
+	 */
+	public static List<Integer> enumerate(int nodeID, ProgramDependenceGraph pdg, 
+								Context ctx, int limit, Listener listener) throws Z3Exception {
+		List<Integer> found = new ArrayList<Integer>();
+		AbstractPDGNode target = pdg.getNodeById(nodeID);
+		int procedureId = PDGHelper.getProcedureId(target, pdg);
+		Map<Integer, AbstractPDGNode> sites = getCallSites(procedureId, pdg);
+		if (sites.isEmpty()) return found;
+		
+		Map<Integer, BoolExpr> pdgNodeToZ3Var = new HashMap<Integer, BoolExpr>();
+		Map<Integer, Expr> expNodeToZ3Var = new HashMap<Integer, Expr>();
+		Map<Integer, BoolExpr> funcToConstraint = new HashMap<Integer, BoolExpr>();
+		Set<Integer> visited = new HashSet<Integer>();
+		Set<BoolExpr> constraints = PDGConstraint.getConstraints(nodeID, pdg, ctx, visited, 
+										pdgNodeToZ3Var, expNodeToZ3Var, funcToConstraint);
+		constraints.addAll(getEntryConstraints(procedureId, pdg, ctx, visited, pdgNodeToZ3Var, 
+										expNodeToZ3Var, funcToConstraint));
+		Solver s = ConstraintCheck.getSolver(ctx, constraints);
+		for (BoolExpr constraint : constraints)
+			s.Assert(constraint);
+		
+		Map<Integer, BoolExpr> remaining = new LinkedHashMap<Integer, BoolExpr>();
+		for (int siteID : sites.keySet()) {
+			remaining.put(siteID, Z3Addons.getCallSiteVar(ctx, siteID));
+		}
+		// some site must be chosen, so blocking all of them makes the query unsatisfiable
+		s.Assert(ctx.MkOr(remaining.values().toArray(new BoolExpr[remaining.size()])));
+		
+		while (!remaining.isEmpty() && ((limit < 0) || (found.size() < limit))) {
+			if (s.Check() != Status.SATISFIABLE) break;
+			Model model = s.Model();
+			
+			List<Integer> chosen = new ArrayList<Integer>();
+			for (Map.Entry<Integer, BoolExpr> site : remaining.entrySet()) {
+				if (model.Eval(site.getValue(), true).IsTrue()) chosen.add(site.getKey());
+			}
+			for (int siteID : chosen) {
+				BoolExpr siteVar = remaining.remove(siteID);
+				s.Assert(ctx.MkNot(siteVar));
+				found.add(siteID);
+				if (PDGConstraint.debugMode) 
+					System.out.println("Feasible call site " + siteID + " in " + sites.get(siteID).getProcedureName());
+				if ((listener != null) && !listener.contextFound(siteID, sites.get(siteID), model)) 
+					return found;
+				if ((limit >= 0) && (found.size() >= limit)) break;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * The procedure's entry disjunction over all of its call sites, with the slices of 
+	 * the caller nodes each site passes in.
+	 */
+	private static Set<BoolExpr> getEntryConstraints(int procedureId, ProgramDependenceGraph pdg, 
+								Context ctx, Set<Integer> visited, 
+								Map<Integer, BoolExpr> pdgNodeToZ3Var, 
+								Map<Integer, Expr> expNodeToZ3Var, 
+								Map<Integer, BoolExpr> funcToConstraint) throws Z3Exception {
+		Set<BoolExpr> constraints = new LinkedHashSet<BoolExpr>();
+		AbstractPDGNode anEntryNode = ProcedureIndex.get(pdg).getProcedure(procedureId).getEntryNodes().get(0);
+		Set<AbstractPDGNode> entryNodes = PDGHelper.getEntryNodes(anEntryNode, pdg);
+		InterProcedure.getEntryNodeConstraints(entryNodes, pdg, ctx, pdgNodeToZ3Var, 
+								expNodeToZ3Var, constraints);
+		for (AbstractPDGNode entry : entryNodes) {
+			visited.add(entry.getNodeId());
+		}
+		for (AbstractPDGNode entry : entryNodes) {
+			for (PDGEdge edge : pdg.incomingEdgesOf(entry)) {
+				int sourceId = edge.getSource().getNodeId();
+				if ((edge.getEdgeLabel() == null) || visited.contains(sourceId)) continue;
+				constraints.addAll(PDGConstraint.getSliceConstraints(sourceId, pdg, ctx, visited, 
+								pdgNodeToZ3Var, expNodeToZ3Var, funcToConstraint, null));
+			}
+		}
+		constraints.addAll(funcToConstraint.values());
+		return constraints;
+	}
+
+	/**
+	 * Call site IDs of the procedure, mapped to the caller's node on the entry edge.
+	 */
+	public static Map<Integer, AbstractPDGNode> getCallSites(int procedureId, 
+														ProgramDependenceGraph pdg) {
+		Map<Integer, AbstractPDGNode> sites = new LinkedHashMap<Integer, AbstractPDGNode>();
+		for (AbstractPDGNode node : ProcedureIndex.get(pdg).getProcedure(procedureId).getEntryNodes()) {
+			for (PDGEdge edge : pdg.incomingEdgesOf(node)) {
+				if ((edge.getEdgeLabel() != null) && 
+						!sites.containsKey(edge.getEdgeLabel().getCallSiteID()))
+					sites.put(edge.getEdgeLabel().getCallSiteID(), edge.getSource());
+			}
+		}
+		return sites;
+	}
+}
@@ -0,0 +1,120 @@
+package constraints;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import accrue.pdg.PDGEdge;
+import accrue.pdg.PDGEdgeType;
+import accrue.pdg.ProgramDependenceGraph;
+import accrue.pdg.node.AbstractPDGNode;
+
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Expr;
+import com.microsoft.z3.Z3Exception;
+
+/**
+ * Information flow queries ("does password influence selfDestruct on a feasible 
+ * path?") encoded over a chop instead of the sink's whole backward slice. The chop is 
+ * the nodes both forward of a source and backward of the sink, plus the pc nodes 
+ * controlling them and the backward slices of the conditions of their TRUE and FALSE 
+ * edges, so the guards of chop nodes are as constrained as in the sink's slice. 
+ * Everything else of the sink's slice is left out, so the encoding over-approximates it.
+ */
+public class Chop {
+
+	/**
+	 * @return ids of the chop's nodes, empty if no source reaches the sink
+	 */
+	public static Set<Integer> getChop(Collection<Integer> sources, int sinkId, 
+										ProgramDependenceGraph pdg) {
+		Set<Integer> forward = getReachable(sources, pdg, true);
+		Set<Integer> chop = new LinkedHashSet<Integer>();
+		if (!forward.contains(sinkId)) return chop;
+		
+		Set<Integer> sink = new HashSet<Integer>();
+		sink.add(sinkId);
+		for (int id : getReachable(sink, pdg, false)) {
+			if (forward.contains(id)) chop.add(id);
+		}
+		addGuards(chop, pdg);
+		if (PDGConstraint.debugMode) System.out.println("Chop nodes: " + chop.size());
+		return chop;
+	}
+
+	private static Set<Integer> getReachable(Collection<Integer> start, ProgramDependenceGraph pdg,
+												boolean forward) {
+		Set<Integer> reached = new HashSet<Integer>(start);
+		Deque<Integer> workQueue = new ArrayDeque<Integer>(start);
+		while (!workQueue.isEmpty()) {
+			AbstractPDGNode node = pdg.getNodeById(workQueue.remove());
+			Set<PDGEdge> edges = forward ? pdg.outgoingEdgesOf(node) : pdg.incomingEdgesOf(node);
+			for (PDGEdge edge : edges) {
+				int next = (forward ? edge.getTarget() : edge.getSource()).getNodeId();
+				if (reached.add(next)) workQueue.add(next);
+			}
+		}
+		return reached;
+	}
+
+	/**
+	 * Adds the pc nodes the chop's nodes depend on, transitively, and the backward 
+	 * slices of the conditions of their TRUE and FALSE edges.
+	 */
+	private static void addGuards(Set<Integer> chop, ProgramDependenceGraph pdg) {
+		Deque<AbstractPDGNode> workQueue = new ArrayDeque<AbstractPDGNode>();
+		for (int id : chop) {
+			workQueue.add(pdg.getNodeById(id));
+		}
+		Set<Integer> guards = new HashSet<Integer>();
+		Set<Integer> conditions = new HashSet<Integer>();
+		while (!workQueue.isEmpty()) {
+			AbstractPDGNode node = workQueue.remove();
+			for (PDGEdge edge : pdg.incomingEdgesOf(node)) {
+				AbstractPDGNode source = edge.getSource();
+				boolean condition = (edge.getType() == PDGEdgeType.TRUE) || 
+										(edge.getType() == PDGEdgeType.FALSE);
+				if (!condition && !PDGHelper.isPCNode(source)) continue;
+				if (condition) conditions.add(source.getNodeId());
+				if (chop.contains(source.getNodeId()) || !guards.add(source.getNodeId())) continue;
+				if (!condition) workQueue.add(source);
+			}
+		}
+		chop.addAll(guards);
+		chop.addAll(getReachable(conditions, pdg, false));
+	}
+
+	/**
+	 * Constraints for the sink restricted to the chop, or just false if no source 
+	 * reaches the sink.
+	 */
+	public static Set<BoolExpr> getConstraints(Collection<Integer> sources, int sinkId, 
+										ProgramDependenceGraph pdg, Context ctx) 
+										throws Z3Exception {
+		Set<Integer> chop = getChop(sources, sinkId, pdg);
+		if (chop.isEmpty()) {
+			Set<BoolExpr> noFlow = new LinkedHashSet<>();
+			noFlow.add(ctx.MkFalse());
+			return noFlow;
+		}
+		return PDGConstraint.getConstraints(sinkId, pdg, ctx, new HashSet<Integer>(), 
+										new HashMap<Integer, BoolExpr>(), 
+										new HashMap<Integer, Expr>(), 
+										new HashMap<Integer, BoolExpr>(), 
+										null, SlicePolicy.LEGACY.restrictTo(chop));
+	}
+
+	/**
+	 * @return false if no source can influence the sink on a feasible path
+	 */
+	public static boolean mayInfluence(Collection<Integer> sources, int sinkId, 
+										ProgramDependenceGraph pdg, Context ctx) 
+										throws Z3Exception {
+		return ConstraintCheck.Check(ctx, getConstraints(sources, sinkId, pdg, ctx)) != null;
+	}
+}
@@ -0,0 +1,83 @@
+package constraints;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.Expr;
+import com.microsoft.z3.Z3Exception;
+
+/**
+ * Cone of influence reduction: keeps only the constraints that are transitively 
+ * connected to the target's variable through shared variables. Function summaries 
+ * gathered for other targets in a shared funcToConstraint map are the usual thing 
+ * dropped. Constraints without variables are always kept, since they can decide 
+ * the query on their own.
+ */
+public class ConeOfInfluence {
+
+	public static Set<BoolExpr> reduce(Set<BoolExpr> constraints, Expr target) throws Z3Exception {
+		// variable id -> constraints mentioning it
+		Map<Integer, List<BoolExpr>> varToConstraints = new HashMap<Integer, List<BoolExpr>>();
+		Map<BoolExpr, Set<Integer>> constraintToVars = new HashMap<BoolExpr, Set<Integer>>();
+		Set<BoolExpr> kept = new LinkedHashSet<BoolExpr>();
+		for (BoolExpr constraint : constraints) {
+			Set<Integer> vars = new HashSet<Integer>();
+			getVars(constraint, vars, new HashSet<Integer>());
+			if (vars.isEmpty()) kept.add(constraint);
+			constraintToVars.put(constraint, vars);
+			for (int var : vars) {
+				List<BoolExpr> mentioning = varToConstraints.get(var);
+				if (mentioning == null) {
+					mentioning = new ArrayList<BoolExpr>();
+					varToConstraints.put(var, mentioning);
+				}
+				mentioning.add(constraint);
+			}
+		}
+		
+		Set<Integer> reached = new HashSet<Integer>();
+		Deque<Integer> workQueue = new ArrayDeque<Integer>();
+		reached.add(target.Id());
+		workQueue.add(target.Id());
+		while (!workQueue.isEmpty()) {
+			List<BoolExpr> mentioning = varToConstraints.get(workQueue.remove());
+			if (mentioning == null) continue;
+			for (BoolExpr constraint : mentioning) {
+				if (!kept.add(constraint)) continue;
+				for (int var : constraintToVars.get(constraint)) {
+					if (reached.add(var)) workQueue.add(var);
+				}
+			}
+		}
+		
+		// keep the original order
+		Set<BoolExpr> reduced = new LinkedHashSet<BoolExpr>();
+		for (BoolExpr constraint : constraints) {
+			if (kept.contains(constraint)) reduced.add(constraint);
+		}
+		if (PDGConstraint.debugMode) 
+			System.out.println("Cone of influence: kept " + reduced.size() + " of " + 
+						constraints.size() + " constraints, dropped " + 
+						(constraints.size() - reduced.size()));
+		return reduced;
+	}
+
+	public static void getVars(Expr exp, Set<Integer> vars, Set<Integer> visited) throws Z3Exception {
+		if (!visited.add(exp.Id())) return;
+		if (exp.IsConst()) {
+			if (!exp.IsTrue() && !exp.IsFalse() && !exp.IsNumeral()) vars.add(exp.Id());
+			return;
+		}
+		for (Expr arg : exp.Args()) {
+			getVars(arg, vars, visited);
+		}
+	}
+}
@@ -0,0 +1,307 @@
+package constraints;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import accrue.pdg.PDGEdge;
+import accrue.pdg.PDGEdgeType;
+import accrue.pdg.ProgramDependenceGraph;
+import accrue.pdg.node.AbstractPDGNode;
+import accrue.pdg.node.PDGNodeType;
+
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Expr;
+import com.microsoft.z3.Z3Exception;
+
+/**
+ * Sparse constant propagation over the expression nodes of a whole PDG. Values flow 
+ * along every incoming edge from an expression node, including the labeled call and 
+ * return edges, so constants cross procedure boundaries. Nodes that can only execute 
+ * on a branch whose guard is constant the other way are recorded as dead.
+ * 
+ * The results are used by seeding the Z3 variable maps before a slice is built: 
+ * constant expression nodes get literals and dead nodes get a false pc. Overflow is 
+ * evaluated the way Expression.encoding encodes it, so the results are recomputed 
+ * when the encoding changes.
+ */
+public class ConstantPropagation {
+	// lattice value for expressions that are not constant; missing values are undefined
+	private static final Object NOT_CONSTANT = new Object();
+	
+	private static Map<ProgramDependenceGraph, ConstantPropagation> results = 
+					new WeakHashMap<ProgramDependenceGraph, ConstantPropagation>();
+	
+	private final ProgramDependenceGraph pdg;
+	private final Expression.NumericEncoding encoding;
+	private final Map<Integer, Object> values = new HashMap<Integer, Object>();
+	private final Set<Integer> deadNodes = new HashSet<Integer>();
+
+	public static synchronized ConstantPropagation get(ProgramDependenceGraph pdg) {
+		ConstantPropagation result = results.get(pdg);
+		if ((result == null) || (result.encoding != Expression.encoding)) {
+			result = new ConstantPropagation(pdg);
+			results.put(pdg, result);
+		}
+		return result;
+	}
+	
+	private ConstantPropagation(ProgramDependenceGraph pdg) {
+		this.pdg = pdg;
+		this.encoding = Expression.encoding;
+		propagateValues();
+		propagateDeadNodes();
+		if (PDGConstraint.debugMode) 
+			System.out.println("Constant propagation: " + getConstantCount() + " constants, " + 
+									deadNodes.size() + " dead nodes");
+	}
+	
+	/**
+	 * @param nodeId
+	 * @return a Boolean or Long value if the expression node is constant, null otherwise
+	 */
+	public Object getConstant(int nodeId) {
+		Object value = values.get(nodeId);
+		return (value == NOT_CONSTANT) ? null : value;
+	}
+	
+	public boolean isDead(int nodeId) {
+		return deadNodes.contains(nodeId);
+	}
+	
+	public int getConstantCount() {
+		int count = 0;
+		for (Object value : values.values()) {
+			if (value != NOT_CONSTANT) count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * Seeds the nodes the target's slice can reach, walking back from the target; a 
+	 * dead node's predecessors are not sliced, so the walk stops there as well.
+	 */
+	public void seed(int targetId, Context ctx, Map<Integer, BoolExpr> pdgNodeToZ3Var, 
+								Map<Integer, Expr> expNodeToZ3Var) throws Z3Exception {
+		Set<Integer> reached = new HashSet<Integer>();
+		Deque<AbstractPDGNode> workQueue = new ArrayDeque<AbstractPDGNode>();
+		reached.add(targetId);
+		workQueue.add(pdg.getNodeById(targetId));
+		while (!workQueue.isEmpty()) {
+			AbstractPDGNode node = workQueue.remove();
+			int id = node.getNodeId();
+			Object value = getConstant(id);
+			if (value != null) expNodeToZ3Var.put(id, getLiteral(node, value, ctx));
+			if (deadNodes.contains(id)) {
+				pdgNodeToZ3Var.put(id, ctx.MkFalse());
+				continue;
+			}
+			for (PDGEdge edge : pdg.incomingEdgesOf(node)) {
+				if (reached.add(edge.getSource().getNodeId())) workQueue.add(edge.getSource());
+			}
+		}
+	}
+	
+	public static Expr getLiteral(AbstractPDGNode node, Object value, Context ctx) throws Z3Exception {
+		if (value instanceof Boolean) return ctx.MkBool((Boolean) value);
+		long longValue = (Long) value;
+		if (Expression.encoding == Expression.NumericEncoding.BIT_VECTOR)
+			return ctx.MkBV(longValue, Expression.getBitWidth(node.getJavaType()));
+		return ctx.MkInt(longValue);
+	}
+	
+	private void propagateValues() {
+		Deque<AbstractPDGNode> workQueue = new ArrayDeque<AbstractPDGNode>();
+		for (AbstractPDGNode node : pdg.vertexSet()) {
+			if (PDGHelper.isExprNode(node)) workQueue.add(node);
+		}
+		while (!workQueue.isEmpty()) {
+			AbstractPDGNode node = workQueue.remove();
+			Object value = evaluate(node);
+			if (value == null || same(value, values.get(node.getNodeId()))) continue;
+			values.put(node.getNodeId(), value);
+			for (PDGEdge edge : pdg.outgoingEdgesOf(node)) {
+				if (PDGHelper.isExprNode(edge.getTarget())) workQueue.add(edge.getTarget());
+			}
+		}
+		// whatever is still undefined is never given a value; don't treat it as constant
+		for (AbstractPDGNode node : pdg.vertexSet()) {
+			if (PDGHelper.isExprNode(node) && !values.containsKey(node.getNodeId()))
+				values.put(node.getNodeId(), NOT_CONSTANT);
+		}
+	}
+	
+	private static boolean same(Object first, Object second) {
+		return (first == second) || ((first != null) && first.equals(second));
+	}
+	
+	private static Object meet(Object first, Object second) {
+		if (first == null) return second;
+		if (second == null) return first;
+		return first.equals(second) ? first : NOT_CONSTANT;
+	}
+	
+	private Object evaluate(AbstractPDGNode node) {
+		boolean isBool = Expression.isBoolName(Expression.getExpressionStr(node.getName())) || 
+							node.getJavaType().equals("Z");
+		if ((node.getNodeType() == PDGNodeType.BASE_VALUE) && pdg.incomingEdgesOf(node).isEmpty()) {
+			return getBaseValue(node.getName(), isBool);
+		}
+		
+		String name = Expression.getExpressionStr(node.getName());
+		if (name.contains("phi")) {
+			int start = name.indexOf("(");
+			int endfirst = name.indexOf(",");
+			int end = name.indexOf(")");
+			Object value = null;
+			AbstractPDGNode left = Expression.getSourceNode(name.substring(start + 1, endfirst), node, pdg);
+			AbstractPDGNode right = Expression.getSourceNode(name.substring(endfirst + 2, end), node, pdg);
+			if (left != null) value = meet(value, values.get(left.getNodeId()));
+			if (right != null) value = meet(value, values.get(right.getNodeId()));
+			if ((left == null) && (right == null)) return NOT_CONSTANT;
+			return value;
+		}
+		
+		String[] binop = Expression.getBinop(name);
+		if (binop != null) {
+			AbstractPDGNode left = Expression.getSourceNode(binop[1], node, pdg);
+			AbstractPDGNode right = Expression.getSourceNode(binop[2], node, pdg);
+			if ((left == null) || (right == null)) return NOT_CONSTANT;
+			Object leftValue = values.get(left.getNodeId());
+			Object rightValue = values.get(right.getNodeId());
+			if ((leftValue == NOT_CONSTANT) || (rightValue == NOT_CONSTANT)) return NOT_CONSTANT;
+			if ((leftValue == null) || (rightValue == null)) return null;
+			return evaluateBinop(binop[0], leftValue, rightValue, node.getJavaType());
+		}
+		
+		// unary: the value of any expression source
+		Object value = null;
+		boolean hasSource = false;
+		for (PDGEdge edge : pdg.incomingEdgesOf(node)) {
+			AbstractPDGNode source = edge.getSource();
+			if (!PDGHelper.isExprNode(source)) continue;
+			hasSource = true;
+			value = meet(value, values.get(source.getNodeId()));
+		}
+		return hasSource ? value : NOT_CONSTANT;
+	}
+	
+	private static Object getBaseValue(String name, boolean isBool) {
+		if (name.equals("1")) return Boolean.TRUE;
+		if (name.equals("0")) return Boolean.FALSE;
+		if (isBool) return NOT_CONSTANT;
+		try {
+			return Long.valueOf(name);
+		} catch (NumberFormatException e) {
+			return NOT_CONSTANT;
+		}
+	}
+	
+	private Object evaluateBinop(String op, Object left, Object right, String javaType) {
+		if (op.equals("^")) {
+			if (!(left instanceof Boolean) || !(right instanceof Boolean)) return NOT_CONSTANT;
+			return ((Boolean) left) ^ ((Boolean) right);
+		}
+		if (!(left instanceof Long) || !(right instanceof Long)) return NOT_CONSTANT;
+		long l = (Long) left;
+		long r = (Long) right;
+		switch (op) {
+			case ">=":
+				return l >= r;
+			case "<=":
+				return l <= r;
+			case ">":
+				return l > r;
+			case "<":
+				return l < r;
+			case "+":
+				return wrap(l + r, javaType);
+			default:
+				return NOT_CONSTANT;
+		}
+	}
+	
+	// overflow behaves as the encoding does: unbounded for LIA, two's complement for bit-vectors
+	private Object wrap(long value, String javaType) {
+		if (encoding != Expression.NumericEncoding.BIT_VECTOR) return value;
+		switch (javaType) {
+			case "B":
+				return (long) (byte) value;
+			case "S":
+				return (long) (short) value;
+			case "C":
+				return (long) (char) value;
+			case "I":
+				return (long) (int) value;
+			default:
+				return value;
+		}
+	}
+	
+	/**
+	 * A node is dead if it is only reached over a TRUE edge from a constantly false 
+	 * guard (or FALSE from constantly true), or if its pc depends on a dead node the 
+	 * way IntraProcedure encodes it: any copy, explicit, implicit or conjunction source, 
+	 * all merge sources, or all call sites for entry nodes.
+	 */
+	private void propagateDeadNodes() {
+		Deque<AbstractPDGNode> workQueue = new ArrayDeque<AbstractPDGNode>(pdg.vertexSet());
+		while (!workQueue.isEmpty()) {
+			AbstractPDGNode node = workQueue.remove();
+			if (deadNodes.contains(node.getNodeId()) || !isDeadGivenSources(node)) continue;
+			deadNodes.add(node.getNodeId());
+			for (PDGEdge edge : pdg.outgoingEdgesOf(node)) {
+				workQueue.add(edge.getTarget());
+			}
+		}
+	}
+	
+	private boolean isDeadGivenSources(AbstractPDGNode node) {
+		boolean hasMerge = false;
+		boolean allMergeDead = true;
+		boolean hasEntry = false;
+		boolean allEntryDead = true;
+		for (PDGEdge edge : pdg.incomingEdgesOf(node)) {
+			int sourceId = edge.getSource().getNodeId();
+			boolean sourceDead = deadNodes.contains(sourceId);
+			if (edge.getEdgeLabel() != null) {
+				if (PDGHelper.isPCNode(edge.getSource()) && PDGHelper.isEntryNode(node, pdg)) {
+					hasEntry = true;
+					allEntryDead &= sourceDead;
+				} else if (PDGHelper.isPCNode(edge.getSource()) && sourceDead) {
+					// return pc equals the callee's exit pc
+					return true;
+				}
+				continue;
+			}
+			switch (edge.getType()) {
+				case TRUE:
+				case FALSE:
+					if (sourceDead) return true;
+					Object guard = getConstant(sourceId);
+					if ((guard instanceof Boolean) && 
+							((Boolean) guard != (edge.getType() == PDGEdgeType.TRUE))) 
+						return true;
+					break;
+				case MERGE:
+					hasMerge = true;
+					allMergeDead &= sourceDead;
+					break;
+				case COPY:
+				case EXP:
+				case IMPLICIT:
+				case CONJUNCTION:
+					if (sourceDead) return true;
+					break;
+				default:
+					break;
+			}
+		}
+		return (hasMerge && allMergeDead) || (hasEntry && allEntryDead);
+	}
+}
@@ -6,6 +6,12 @@ import com.microsoft.z3.*;
 
 
 public class ConstraintCheck {
+
+	// route integer difference logic queries to a QF_IDL configured solver
+	public static boolean useDifferenceLogic = true;
+
+	// try to decide queries by boolean propagation before creating a solver
+	public static boolean usePropagation = true;
 	
 	public static Model Check(Context ctx, Set<BoolExpr> assertions) throws Z3Exception {
 		return Check(ctx, assertions, false);
@@ -13,7 +19,12 @@ public class ConstraintCheck {
 	
     public static Model Check(Context ctx, Set<BoolExpr> assertions, boolean useMBQI) 
     		throws Z3Exception {
-		Solver s = ctx.MkSolver();
+		if (usePropagation && 
+				(UnitPropagation.propagate(assertions) == Status.UNSATISFIABLE)) {
+			if (PDGConstraint.debugMode) System.out.println("Decided UNSAT by propagation");
+			return null;
+		}
+		Solver s = getSolver(ctx, assertions);
         Params p = ctx.MkParams();
         p.Add("mbqi", useMBQI);
         s.setParameters(p);
@@ -25,4 +36,46 @@ public class ConstraintCheck {
 		else
 		    return null;
 	}
+
+	/**
+	 * Like Check, but only reports the status, so SAT can be decided by propagation
+	 * as well. 
+	 */
+	public static Status CheckStatus(Context ctx, Set<BoolExpr> assertions) throws Z3Exception {
+		if (usePropagation) {
+			Status status = UnitPropagation.propagate(assertions);
+			if (status != Status.UNKNOWN) {
+				if (PDGConstraint.debugMode) System.out.println("Decided " + status + " by propagation");
+				return status;
+			}
+		}
+		Solver s = getSolver(ctx, assertions);
+		for (BoolExpr a : assertions)
+			s.Assert(a);
+		return s.Check();
+	}
+
+	public static Solver getSolver(Context ctx, Set<BoolExpr> assertions) throws Z3Exception {
+		if (Expression.encoding == Expression.NumericEncoding.BIT_VECTOR) {
+			return ctx.MkSolver("QF_BV");
+		}
+		if (useDifferenceLogic && DifferenceLogic.isDifferenceLogic(assertions)) {
+			if (PDGConstraint.debugMode) System.out.println("Using QF_IDL solver");
+			return ctx.MkSolver("QF_IDL");
+		}
+		return ctx.MkSolver();
+	}
+
+	/**
+	 * Checks the assertions in an out-of-process solver from the given pool. Only the
+	 * status is available, there is no model.
+	 */
+	public static Status CheckOutOfProcess(SolverWorkerPool pool, Set<BoolExpr> assertions)
+			throws Z3Exception {
+		if (usePropagation) {
+			Status status = UnitPropagation.propagate(assertions);
+			if (status != Status.UNKNOWN) return status;
+		}
+		return pool.check(assertions);
+	}
 }
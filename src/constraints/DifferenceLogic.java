@@ -0,0 +1,106 @@
+package constraints;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.Expr;
+import com.microsoft.z3.Z3Exception;
+
+/**
+ * Detects constraint sets in the integer difference logic fragment (QF_IDL): every
+ * arithmetic atom compares terms of the form x - y + c, x + c or c, for integer
+ * variables x, y and numerals c. Boolean structure on top of the atoms is unrestricted.
+ */
+public class DifferenceLogic {
+
+	public static boolean isDifferenceLogic(Set<BoolExpr> assertions) throws Z3Exception {
+		Set<Integer> visited = new HashSet<Integer>();
+		boolean[] hasArith = new boolean[] {false};
+		for (BoolExpr assertion : assertions) {
+			if (!isDifferenceFormula(assertion, visited, hasArith)) return false;
+		}
+		// purely boolean queries are left to the default solver
+		return hasArith[0];
+	}
+
+	public static boolean isDifferenceFormula(Expr exp, Set<Integer> visited, boolean[] hasArith)
+														throws Z3Exception {
+		if (!visited.add(exp.Id())) return true;
+
+		if (exp.IsTrue() || exp.IsFalse()) return true;
+		if (exp.IsLE() || exp.IsGE() || exp.IsLT() || exp.IsGT() ||
+				((exp.IsEq() || exp.IsDistinct()) && exp.Args()[0].IsInt())) {
+			hasArith[0] = true;
+			return isDifferenceAtom(exp);
+		}
+		if (exp.IsAnd() || exp.IsOr() || exp.IsNot() || exp.IsImplies() ||
+				exp.IsIff() || exp.IsXor() || exp.IsEq() || exp.IsDistinct() ||
+				(exp.IsITE() && exp.IsBool())) {
+			for (Expr arg : exp.Args()) {
+				if (!isDifferenceFormula(arg, visited, hasArith)) return false;
+			}
+			return true;
+		}
+		// boolean variables
+		return exp.IsConst() && exp.IsBool();
+	}
+
+	public static boolean isDifferenceAtom(Expr atom) throws Z3Exception {
+		Expr[] args = atom.Args();
+		if (args.length != 2) return false;
+
+		// move everything to the left hand side: lhs - rhs op 0
+		Map<Integer, Integer> coefficients = new HashMap<Integer, Integer>();
+		if (!addLinearTerm(args[0], 1, coefficients)) return false;
+		if (!addLinearTerm(args[1], -1, coefficients)) return false;
+
+		int positive = 0;
+		int negative = 0;
+		for (int coefficient : coefficients.values()) {
+			if (coefficient == 1) positive++;
+			else if (coefficient == -1) negative++;
+			else if (coefficient != 0) return false;
+		}
+		return (positive <= 1) && (negative <= 1);
+	}
+
+	/**
+	 * Accumulates the variable coefficients of a linear integer term. Returns false if
+	 * the term contains anything other than variables, numerals, +, - and unary minus.
+	 *
+	 * @param term
+	 * @param sign
+	 * @param coefficients
+	 * @return
+	 * @throws Z3Exception
+	 */
+	public static boolean addLinearTerm(Expr term, int sign, Map<Integer, Integer> coefficients)
+														throws Z3Exception {
+		if (term.IsIntNum()) return true;
+		if (term.IsAdd()) {
+			for (Expr arg : term.Args()) {
+				if (!addLinearTerm(arg, sign, coefficients)) return false;
+			}
+			return true;
+		}
+		if (term.IsSub()) {
+			Expr[] args = term.Args();
+			if (!addLinearTerm(args[0], sign, coefficients)) return false;
+			for (int i = 1; i < args.length; i++) {
+				if (!addLinearTerm(args[i], -sign, coefficients)) return false;
+			}
+			return true;
+		}
+		if (term.IsUMinus()) return addLinearTerm(term.Args()[0], -sign, coefficients);
+		if (term.IsConst() && term.IsInt()) {
+			int id = term.Id();
+			Integer old = coefficients.get(id);
+			coefficients.put(id, (old == null ? 0 : old) + sign);
+			return true;
+		}
+		return false;
+	}
+}
@@ -11,12 +11,48 @@ import accrue.pdg.node.AbstractPDGNode;
 import accrue.pdg.node.PDGNodeType;
 
 import com.microsoft.z3.ArithExpr;
+import com.microsoft.z3.BitVecExpr;
+import com.microsoft.z3.BitVecSort;
 import com.microsoft.z3.BoolExpr;
 import com.microsoft.z3.Context;
 import com.microsoft.z3.Expr;
 import com.microsoft.z3.Z3Exception;
 
 public class Expression {
+	// how Java integral values are encoded: unbounded integers (LIA) or
+	// bit-vectors of the Java type's width
+	public enum NumericEncoding { LIA, BIT_VECTOR }
+	
+	public static NumericEncoding encoding = NumericEncoding.LIA;
+	
+	public static int getBitWidth(String javaType) {
+		switch (javaType) {
+			case "B":
+				return 8;
+			case "S":
+			case "C":
+				return 16;
+			case "I":
+				return 32;
+			case "J":
+				return 64;
+			default:
+				return -1;
+		}
+	}
+	
+	public static boolean isUnsignedType(String javaType) {
+		return javaType.equals("C");
+	}
+	
+	// expressions that are boolean whatever the node's java type
+	public static boolean isBoolName(String expName) {
+		return expName.equals("1") || expName.equals("0") || 
+				expName.equals("phi(1, 0)") ||
+				expName.equals("phi(0, 1)") ||
+				expName.contains("^");
+	}
+	
 	public static Expr getOrAddAnyVar(Map<Integer, Expr> mapToZ3Var, AbstractPDGNode node, Context ctx) 
 			throws Z3Exception {
 		if (mapToZ3Var.containsKey(node.getNodeId())) {
@@ -24,10 +60,7 @@ public class Expression {
 		}
 		
 		String expName = getExpressionStr(node.getName());
-		if (expName.equals("1") || expName.equals("0") || 
-				expName.equals("phi(1, 0)") ||
-				expName.equals("phi(0, 1)") ||
-				expName.contains("^")) {
+		if (isBoolName(expName)) {
 			Expr nodeVar = Z3Addons.getFreshBoolVar(ctx);
 			mapToZ3Var.put(node.getNodeId(), nodeVar);
 			return nodeVar;
@@ -35,8 +68,15 @@ public class Expression {
 		
 		Expr nodeVar;
 		switch (node.getJavaType()) {
+			case "B":
+			case "S":
+			case "C":
 			case "I":
-				nodeVar = Z3Addons.getFreshIntVar(ctx);
+			case "J":
+				if (encoding == NumericEncoding.BIT_VECTOR)
+					nodeVar = Z3Addons.getFreshBitVecVar(ctx, getBitWidth(node.getJavaType()));
+				else
+					nodeVar = Z3Addons.getFreshIntVar(ctx);
 				break;
 			case "Z":
 				nodeVar = Z3Addons.getFreshBoolVar(ctx);
@@ -55,8 +95,14 @@ public class Expression {
 		if (name.equals("0")) return ctx.MkFalse();
 		
 		switch (node.getJavaType()) {
+			case "B":
+			case "S":
+			case "C":
 			case "I":
-				return ctx.MkInt(Integer.valueOf(name));
+			case "J":
+				if (encoding == NumericEncoding.BIT_VECTOR)
+					return ctx.MkBV(Long.valueOf(name), getBitWidth(node.getJavaType()));
+				return ctx.MkInt(Long.valueOf(name));
 			default:
 				throw new IllegalArgumentException("Node type unexpected: " + node.getJavaType());
 		}
@@ -134,6 +180,63 @@ public class Expression {
 
 		return null;
 	}
+	
+	// searches for node with name "name" amongst the parents of this node
+	public static AbstractPDGNode getSourceNode(String name, AbstractPDGNode node, 
+												ProgramDependenceGraph pdg) {
+		for (PDGEdge edge : pdg.incomingEdgesOf(node)) {
+			AbstractPDGNode source = edge.getSource();
+			if (name.equals(getParentNodeName(source.getName()))) {
+				return source;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Equality that tolerates bit-vectors of different widths, as when a narrow 
+	 * value is copied into a wider local. 
+	 */
+	public static BoolExpr getEq(Expr left, Expr right, Context ctx) throws Z3Exception {
+		return getEq(left, false, right, false, ctx);
+	}
+
+	/**
+	 * Same as above, but the narrower side is extended as its java type is: chars are 
+	 * zero extended, everything else sign extended.
+	 */
+	public static BoolExpr getEq(AbstractPDGNode leftNode, Expr left, 
+								AbstractPDGNode rightNode, Expr right, Context ctx) 
+															throws Z3Exception {
+		return getEq(left, isUnsignedType(leftNode.getJavaType()), 
+						right, isUnsignedType(rightNode.getJavaType()), ctx);
+	}
+
+	public static BoolExpr getEq(Expr left, boolean leftUnsigned, Expr right, boolean rightUnsigned, 
+								Context ctx) throws Z3Exception {
+		if ((left instanceof BitVecExpr) && (right instanceof BitVecExpr)) {
+			int width = Math.max(getWidth(left), getWidth(right));
+			left = fitWidth((BitVecExpr) left, width, leftUnsigned, ctx);
+			right = fitWidth((BitVecExpr) right, width, rightUnsigned, ctx);
+		}
+		return ctx.MkEq(left, right);
+	}
+	
+	public static int getWidth(Expr exp) throws Z3Exception {
+		return ((BitVecSort) exp.Sort()).Size();
+	}
+	
+	public static BitVecExpr fitWidth(BitVecExpr exp, int width, boolean unsigned, Context ctx) 
+															throws Z3Exception {
+		int oldWidth = getWidth(exp);
+		if (oldWidth < width) {
+			if (unsigned) return ctx.MkZeroExt(width - oldWidth, exp);
+			return ctx.MkSignExt(width - oldWidth, exp);
+		}
+		if (oldWidth > width)
+			return ctx.MkExtract(width - 1, 0, exp);
+		return exp;
+	}
 
 	
 	public static BoolExpr getPhiExp(String name, AbstractPDGNode node, ProgramDependenceGraph pdg,
@@ -146,81 +249,140 @@ public class Expression {
 		int end = name.indexOf(")");
 		String leftName = name.substring(start + 1, endfirst);
 		String rightName = name.substring(endfirst + 2, end);
+		AbstractPDGNode leftNode = getSourceNode(leftName, node, pdg);
+		AbstractPDGNode rightNode = getSourceNode(rightName, node, pdg);
 		Expr leftVar = getZ3VarFromSources(leftName, node, pdg, expNodeToZ3Var, ctx);
 		Expr rightVar = getZ3VarFromSources(rightName, node, pdg, expNodeToZ3Var, ctx);
 		if ((leftVar != null) && (rightVar != null))
-			return ctx.MkOr(new BoolExpr[] {ctx.MkEq(nodeVar, leftVar), ctx.MkEq(nodeVar, rightVar)});
-		if (leftVar == null) leftVar = rightVar;
-		if (leftVar != null) return ctx.MkEq(nodeVar,  leftVar);
+			return ctx.MkOr(new BoolExpr[] {getEq(node, nodeVar, leftNode, leftVar, ctx), 
+											getEq(node, nodeVar, rightNode, rightVar, ctx)});
+		if (leftVar == null) {
+			leftVar = rightVar;
+			leftNode = rightNode;
+		}
+		if (leftVar != null) return getEq(node, nodeVar, leftNode, leftVar, ctx);
 		return null;
 	}
 	
-	public static BoolExpr getBinopExp(String name, AbstractPDGNode node, ProgramDependenceGraph pdg,
-			Map<Integer, Expr> expNodeToZ3Var, Context ctx) throws Z3Exception {
-		Expr nodeVar = getOrAddAnyVar(expNodeToZ3Var, node, ctx);
-		Expr exp = null;
-		if (name.contains("^")) {
-			int opIndex = name.indexOf("^");
-			String leftName = name.substring(0, opIndex - 1);
-			String rightName = name.substring(opIndex + 2);
-			Expr leftVar = getZ3VarFromSources(leftName, node, pdg, expNodeToZ3Var, ctx);
-			Expr rightVar = getZ3VarFromSources(rightName, node, pdg, expNodeToZ3Var, ctx);
-			exp = ctx.MkXor((BoolExpr)leftVar, (BoolExpr)rightVar);
-		}
-		else if (name.contains(">=")) {
-			int opIndex = name.indexOf(">=");
-			String leftName = name.substring(0, opIndex - 1);
-			String rightName = name.substring(opIndex + 3);
-			Expr leftVar = getZ3VarFromSources(leftName, node, pdg, expNodeToZ3Var, ctx);
-			Expr rightVar = getZ3VarFromSources(rightName, node, pdg, expNodeToZ3Var, ctx);
-			
-			exp = ctx.MkGe((ArithExpr)leftVar, (ArithExpr)rightVar);		
+	/**
+	 * The nodes a phi or merge node takes its value from, in the order of the 
+	 * disjuncts of its expression constraint.
+	 */
+	public static List<AbstractPDGNode> getMergeSources(AbstractPDGNode node, 
+													ProgramDependenceGraph pdg) {
+		List<AbstractPDGNode> sources = new ArrayList<AbstractPDGNode>();
+		String name = getExpressionStr(node.getName());
+		if (name.contains("phi")) {
+			int start = name.indexOf("(");
+			int endfirst = name.indexOf(",");
+			int end = name.indexOf(")");
+			AbstractPDGNode left = getSourceNode(name.substring(start + 1, endfirst), node, pdg);
+			AbstractPDGNode right = getSourceNode(name.substring(endfirst + 2, end), node, pdg);
+			if (left != null) sources.add(left);
+			if (right != null) sources.add(right);
+			return sources;
 		}
-		else if (name.contains("<=")) {
-			int opIndex = name.indexOf("<=");
-			String leftName = name.substring(0, opIndex - 1);
-			String rightName = name.substring(opIndex + 3);
-			System.out.println(leftName + " " + rightName);
-			Expr leftVar = getZ3VarFromSources(leftName, node, pdg, expNodeToZ3Var, ctx);
-			Expr rightVar = getZ3VarFromSources(rightName, node, pdg, expNodeToZ3Var, ctx);
-			
-			exp = ctx.MkLe((ArithExpr)leftVar, (ArithExpr)rightVar);		
+		for (PDGEdge edge : pdg.incomingEdgesOf(node)) {
+			if (PDGHelper.isExprNode(edge.getSource())) sources.add(edge.getSource());
 		}
-		else if (name.contains(">")) {
-			int opIndex = name.indexOf(">");
+		return sources;
+	}
+	
+	// binary operators in the order they are matched against expression names
+	private static final String[] BINOPS = new String[] {"^", ">=", "<=", ">", "<", "+"};
+	
+	/**
+	 * Splits a binary operator expression name such as "x < 50" into its 
+	 * operator, left operand name and right operand name.
+	 * 
+	 * @param name
+	 * @return {operator, left, right}, or null if name is not a binary operation
+	 */
+	public static String[] getBinop(String name) {
+		for (String op : BINOPS) {
+			int opIndex = name.indexOf(op);
+			if (opIndex == -1) continue;
 			String leftName = name.substring(0, opIndex - 1);
-			String rightName = name.substring(opIndex + 2);
-			System.out.println(leftName + " " + rightName);
-			Expr leftVar = getZ3VarFromSources(leftName, node, pdg, expNodeToZ3Var, ctx);
-			Expr rightVar = getZ3VarFromSources(rightName, node, pdg, expNodeToZ3Var, ctx);
-			
-			exp = ctx.MkGt((ArithExpr)leftVar, (ArithExpr)rightVar);		
+			String rightName = name.substring(opIndex + op.length() + 1);
+			return new String[] {op, leftName, rightName};
 		}
-		else if (name.contains("<")) {
-			int opIndex = name.indexOf("<");
-			String leftName = name.substring(0, opIndex - 1);
-			String rightName = name.substring(opIndex + 2);
-			System.out.println(leftName + " " + rightName);
-			Expr leftVar = getZ3VarFromSources(leftName, node, pdg, expNodeToZ3Var, ctx);
-			Expr rightVar = getZ3VarFromSources(rightName, node, pdg, expNodeToZ3Var, ctx);
-			
-			exp = ctx.MkLt((ArithExpr)leftVar, (ArithExpr)rightVar);		
+		return null;
+	}
+	
+	public static BoolExpr getBinopExp(String name, AbstractPDGNode node, ProgramDependenceGraph pdg,
+			Map<Integer, Expr> expNodeToZ3Var, Context ctx) throws Z3Exception {
+		Expr nodeVar = getOrAddAnyVar(expNodeToZ3Var, node, ctx);
+		String[] binop = getBinop(name);
+		if (binop == null)
+			return null;
+		if (PDGConstraint.debugMode) System.out.println(binop[1] + " " + binop[2]);
+		Expr leftVar = getZ3VarFromSources(binop[1], node, pdg, expNodeToZ3Var, ctx);
+		Expr rightVar = getZ3VarFromSources(binop[2], node, pdg, expNodeToZ3Var, ctx);
+		
+		if (binop[0].equals("^"))
+			return ctx.MkEq(nodeVar, ctx.MkXor((BoolExpr)leftVar, (BoolExpr)rightVar));
+		
+		if (leftVar instanceof BitVecExpr) {
+			AbstractPDGNode leftNode = getSourceNode(binop[1], node, pdg);
+			AbstractPDGNode rightNode = getSourceNode(binop[2], node, pdg);
+			Expr exp = getBitVecBinop(binop[0], (BitVecExpr) leftVar, 
+							isUnsignedType(leftNode.getJavaType()), 
+							(BitVecExpr) rightVar, 
+							isUnsignedType(rightNode.getJavaType()), ctx);
+			if (nodeVar instanceof BitVecExpr)
+				exp = fitWidth((BitVecExpr) exp, getWidth(nodeVar), false, ctx);
+			return ctx.MkEq(nodeVar, exp);
 		}
-		else if (name.contains("+")) {
-			int opIndex = name.indexOf("+");
-			String leftName = name.substring(0, opIndex - 1);
-			String rightName = name.substring(opIndex + 2);
-			System.out.println(leftName + " " + rightName);
-			Expr leftVar = getZ3VarFromSources(leftName, node, pdg, expNodeToZ3Var, ctx);
-			Expr rightVar = getZ3VarFromSources(rightName, node, pdg, expNodeToZ3Var, ctx);
-			
-			exp = ctx.MkAdd(new ArithExpr[] {(ArithExpr)leftVar, (ArithExpr)rightVar});		
+		
+		ArithExpr left = (ArithExpr) leftVar;
+		ArithExpr right = (ArithExpr) rightVar;
+		Expr exp = null;
+		switch (binop[0]) {
+			case ">=":
+				exp = ctx.MkGe(left, right);
+				break;
+			case "<=":
+				exp = ctx.MkLe(left, right);
+				break;
+			case ">":
+				exp = ctx.MkGt(left, right);
+				break;
+			case "<":
+				exp = ctx.MkLt(left, right);
+				break;
+			case "+":
+				exp = ctx.MkAdd(new ArithExpr[] {left, right});
+				break;
 		}
-		if (exp == null)
-			return null;
 		return ctx.MkEq(nodeVar, exp);
 	}
 	
+	/**
+	 * Operands are promoted as in Java binary numeric promotion: to 64 bits if 
+	 * either is a long and to 32 bits otherwise, zero extending chars. 
+	 */
+	public static Expr getBitVecBinop(String op, BitVecExpr left, boolean leftUnsigned, 
+									BitVecExpr right, boolean rightUnsigned, Context ctx) 
+											throws Z3Exception {
+		int width = Math.max(32, Math.max(getWidth(left), getWidth(right)));
+		left = fitWidth(left, width, leftUnsigned, ctx);
+		right = fitWidth(right, width, rightUnsigned, ctx);
+		switch (op) {
+			case ">=":
+				return ctx.MkBVSGE(left, right);
+			case "<=":
+				return ctx.MkBVSLE(left, right);
+			case ">":
+				return ctx.MkBVSGT(left, right);
+			case "<":
+				return ctx.MkBVSLT(left, right);
+			case "+":
+				return ctx.MkBVAdd(left, right);
+			default:
+				throw new IllegalArgumentException("Operator unexpected: " + op);
+		}
+	}
+	
 	/**
 	 * multiple values can equal a return node value, say. 
 	 * 
@@ -250,13 +412,13 @@ public class Expression {
 	public static BoolExpr getUnaryExp(String name, AbstractPDGNode node, ProgramDependenceGraph pdg,
 								Map<Integer, Expr> expNodeToZ3Var, Context ctx) throws Z3Exception {
 		Expr nodeVar = getOrAddAnyVar(expNodeToZ3Var, node, ctx);
-		List<Expr> subExps = new ArrayList<Expr>();
-		
-		subExps = getExpSourceNodes(node, pdg, expNodeToZ3Var, ctx);
 		
 		BoolExpr retExp = null;
-		for (Expr subExp : subExps) {
-			retExp = Z3Addons.orConstraints(retExp, ctx, ctx.MkEq(nodeVar,  subExp));
+		for (PDGEdge edge : pdg.incomingEdgesOf(node)) {
+			AbstractPDGNode source = edge.getSource();
+			if (!PDGHelper.isExprNode(source)) continue;
+			Expr subExp = getOrAddAnyVar(expNodeToZ3Var, source, ctx);
+			retExp = Z3Addons.orConstraints(retExp, ctx, getEq(node, nodeVar, source, subExp, ctx));
 		}
 		return retExp;
 	}
@@ -49,11 +49,18 @@ public class GraphConstraintInfo {
 
 	public static void getAndCheckConstraints(ProgramDependenceGraph pdg, int id) throws Z3Exception {
 		Context ctx = new Context();
-		Set<BoolExpr> constraints = PDGConstraint.getConstraints(id, pdg, ctx);
+		getAndCheckConstraints(pdg, id, SlicePolicy.LEGACY);
+	}
+
+	public static void getAndCheckConstraints(ProgramDependenceGraph pdg, int id, SlicePolicy policy) 
+																throws Z3Exception {
+		Context ctx = new Context();
+		Set<BoolExpr> constraints = PDGConstraint.getConstraints(id, pdg, ctx, policy);
 		printConstraints(constraints);
 		System.out.println();
 		Model model = ConstraintCheck.Check(ctx, constraints);
 		System.out.println(model);		
+		if (PDGConstraint.useLemmaCache) LemmaCache.learn(id, pdg, ctx, policy);
 	}
 
 	public static void getAndCheckConstraints(ProgramDependenceGraph pdg, ArrayList<Integer> ids)
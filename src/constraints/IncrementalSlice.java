@@ -0,0 +1,92 @@
+package constraints;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import accrue.pdg.PDGEdge;
+import accrue.pdg.PDGEdgeType;
+import accrue.pdg.ProgramDependenceGraph;
+import accrue.pdg.node.AbstractPDGNode;
+
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Expr;
+import com.microsoft.z3.Solver;
+import com.microsoft.z3.Status;
+import com.microsoft.z3.Z3Exception;
+
+/**
+ * Checks reachability of a node while its slice is being built. Node constraints 
+ * are asserted into a live solver as they are encoded, and checked every checkInterval 
+ * nodes and whenever a node guarded by a TRUE or FALSE edge is encoded. The partial 
+ * set is a subset of the full slice, so once it is UNSAT slicing stops and the node 
+ * is unreachable. Function summaries only grow weaker while slicing, so they are only 
+ * asserted for the final check.
+ * 
+ * Works best with PDGConstraint.useOrderedWorklist, which encodes guards first.
+ */
+public class IncrementalSlice implements PDGConstraint.Checkpoint {
+	private final Solver solver;
+	private final int checkInterval;
+	private int sinceCheck = 0;
+	private int checks = 0;
+	private Status status = Status.UNKNOWN;
+
+	private IncrementalSlice(Solver solver, int checkInterval) {
+		this.solver = solver;
+		this.checkInterval = checkInterval;
+	}
+
+	/**
+	 * @param checkInterval nodes between checks, or -1 to check at guards only
+	 */
+	public static Status check(int nodeID, ProgramDependenceGraph pdg, Context ctx, 
+								SlicePolicy policy, int checkInterval) throws Z3Exception {
+		Solver solver = ConstraintCheck.getSolver(ctx, new HashSet<BoolExpr>());
+		IncrementalSlice checkpoint = new IncrementalSlice(solver, checkInterval);
+		Map<Integer, BoolExpr> pdgNodeToZ3Var = new HashMap<Integer, BoolExpr>();
+		Map<Integer, Expr> expNodeToZ3Var = new HashMap<Integer, Expr>();
+		Map<Integer, BoolExpr> funcToConstraint = new HashMap<Integer, BoolExpr>();
+		
+		BoolExpr base = Z3Addons.getFreshBoolVar(ctx);
+		pdgNodeToZ3Var.put(nodeID, base);
+		solver.Assert(base);
+		PDGConstraint.getSliceConstraints(nodeID, pdg, ctx, new HashSet<Integer>(), 
+								pdgNodeToZ3Var, expNodeToZ3Var, funcToConstraint, null, 
+								policy, checkpoint);
+		if (checkpoint.status == Status.UNSATISFIABLE) {
+			if (PDGConstraint.debugMode) 
+				System.out.println("UNSAT after " + checkpoint.checks + " partial checks");
+			return Status.UNSATISFIABLE;
+		}
+		
+		for (BoolExpr summary : funcToConstraint.values())
+			solver.Assert(summary);
+		return solver.Check();
+	}
+	
+	@Override
+	public boolean encoded(AbstractPDGNode node, ProgramDependenceGraph pdg, 
+							Set<BoolExpr> newConstraints) throws Z3Exception {
+		for (BoolExpr constraint : newConstraints)
+			solver.Assert(constraint);
+		sinceCheck++;
+		if (!isGuarded(node, pdg) && ((checkInterval < 0) || (sinceCheck < checkInterval))) 
+			return true;
+		
+		sinceCheck = 0;
+		checks++;
+		status = solver.Check();
+		return status != Status.UNSATISFIABLE;
+	}
+
+	public static boolean isGuarded(AbstractPDGNode node, ProgramDependenceGraph pdg) {
+		for (PDGEdge edge : pdg.incomingEdgesOf(node)) {
+			if ((edge.getType() == PDGEdgeType.TRUE) || (edge.getType() == PDGEdgeType.FALSE))
+				return true;
+		}
+		return false;
+	}
+}
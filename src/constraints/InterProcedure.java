@@ -1,4 +1,6 @@
 package constraints;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -10,6 +12,8 @@ import com.microsoft.z3.Context;
 import com.microsoft.z3.Expr;
 import com.microsoft.z3.Z3Exception;
 
+import constraints.CallSiteTable.CallSite;
+
 public class InterProcedure {
 	public static void getFunctionConstraints(AbstractPDGNode node, ProgramDependenceGraph pdg,
 												Context ctx, Map<Integer, BoolExpr> pdgNodeToZ3Var,
@@ -37,7 +41,8 @@ public class InterProcedure {
 		Expr nodeExprVar = Expression.getOrAddAnyVar(expNodeToZ3Var, node, ctx);
 		Expr calleeExprVar = Expression.getOrAddAnyVar(expNodeToZ3Var, calleeNode, ctx);
 
-		constraints.add(ctx.MkImplies(target, ctx.MkEq(nodeExprVar, calleeExprVar)));
+		constraints.add(ctx.MkImplies(target, 
+						Expression.getEq(node, nodeExprVar, calleeNode, calleeExprVar, ctx)));
 	}
 
 	public static BoolExpr getUniqueFuncConstraints(AbstractPDGNode node, 
@@ -64,7 +69,7 @@ public class InterProcedure {
 	public static void updateFuncConstraint(AbstractPDGNode node, 
 											ProgramDependenceGraph pdg,
 											Set<BoolExpr> constraints,
-											Map<String, BoolExpr> funcToConstraint,
+											Map<Integer, BoolExpr> funcToConstraint,
 											Context ctx,
 											Map<Integer, BoolExpr> pdgNodeToZ3Var) 
 													throws Z3Exception {
@@ -72,8 +77,12 @@ public class InterProcedure {
 		BoolExpr nodePCVar = PDGConstraint.getOrAddVar(pdgNodeToZ3Var, node.getNodeId(), ctx);
 		BoolExpr origEqExp = null;
 		BoolExpr funcConstraint = null;
+		// the same without the value equalities, which are implications
+		BoolExpr pcConstraint = null;
 		for (BoolExpr constraint : constraints) {
 			funcConstraint = Z3Addons.andConstraints(funcConstraint, ctx, constraint);
+			if (!constraint.IsImplies()) 
+				pcConstraint = Z3Addons.andConstraints(pcConstraint, ctx, constraint);
 			
 			// capture an equality constraint that don't include the given node, if
 			// the given node is a return variable - this equality constraint is in
@@ -87,14 +96,127 @@ public class InterProcedure {
 		}
 		
 		// find function name for this call
-		String functionName = PDGHelper.getFunctionNameForCall(node, pdg);
+		int functionId = PDGHelper.getFunctionIdForCall(node, pdg);
 		
 		// later in the iteration, we may have run into a formal assignment when a 
 		// constraint was originally based on the exit PC - this is a more specific 
 		// constraint then, so we add it here.
-		BoolExpr origFuncConstraint = funcToConstraint.get(functionName);
+		BoolExpr origFuncConstraint = funcToConstraint.get(functionId);
+		if (CallGraph.get(pdg).isRecursive(functionId)) {
+			funcToConstraint.put(functionId, getRecursiveFuncConstraint(node, functionId, pdg, 
+										origFuncConstraint, funcConstraint, pcConstraint, ctx));
+			return;
+		}
 		funcConstraint = getUniqueFuncConstraints(node, origFuncConstraint, funcConstraint, origEqExp, ctx);
-		funcToConstraint.put(functionName, funcConstraint);
+		funcToConstraint.put(functionId, funcConstraint);
+	}
+
+	/**
+	 * Summaries of recursive procedures gain a disjunct for every call site the slice 
+	 * runs into. Once a summary has PDGConstraint.recursionBound disjuncts, a further 
+	 * call from within the recursion only adds its pc equalities, which its whole 
+	 * disjunct implies: its values are no longer correlated with the callee's. Calls 
+	 * from outside the recursion always keep their whole disjunct, so value constraints 
+	 * stay bounded without giving up the outer call's correlation.
+	 * 
+	 * @param node a return node of the call
+	 */
+	public static BoolExpr getRecursiveFuncConstraint(AbstractPDGNode node, int functionId, 
+										ProgramDependenceGraph pdg,
+										BoolExpr origFuncConstraint, 
+										BoolExpr funcConstraint, 
+										BoolExpr pcConstraint,
+										Context ctx) throws Z3Exception {
+		if (origFuncConstraint == null) return funcConstraint;
+		if (funcConstraint == null) return origFuncConstraint;
+		
+		boolean recursiveCall = CallGraph.get(pdg).getComponent(functionId).contains(
+										PDGHelper.getProcedureId(node, pdg));
+		if (recursiveCall && 
+				(Z3Addons.countDisjuncts(origFuncConstraint) >= PDGConstraint.recursionBound)) {
+			if (PDGConstraint.debugMode) System.out.println("Widening call to " + 
+											ProcedureIndex.get(pdg).getName(functionId));
+			funcConstraint = pcConstraint;
+		}
+		return Z3Addons.orConstraints(origFuncConstraint, ctx, funcConstraint);
+	}
+
+	/**
+	 * Encodes a call by a copy of the callee's body with its own variables. The copy's 
+	 * entry nodes are the caller's nodes at this call site and its exit nodes are the 
+	 * caller's return nodes, so no summary or entry disjunction is needed. Only used 
+	 * for leaf callees, see CalleePolicy.
+	 * 
+	 * @param node a return node of the call
+	 */
+	public static void getInlinedConstraints(AbstractPDGNode node, 
+											ProgramDependenceGraph pdg, 
+											Context ctx, 
+											Map<Integer, BoolExpr> pdgNodeToZ3Var, 
+											Map<Integer, Expr> expNodeToZ3Var, 
+											Set<BoolExpr> constraints,
+											Set<BoolExpr> expConstraints,
+											Map<Integer, BoolExpr> funcToConstraint) 
+											throws Z3Exception {
+		CallSite site = CallSiteTable.get(pdg).getCallerSite(node);
+		if (PDGConstraint.debugMode) System.out.println("Inlining call site " + site.getId());
+		for (AbstractPDGNode callerNode : site.getCallerNodes()) {
+			IntraProcedure.getNonFunctionConstraints(callerNode, pdg, ctx, pdgNodeToZ3Var, 
+											expNodeToZ3Var, constraints, expConstraints);
+		}
+		
+		Map<Integer, BoolExpr> calleePDGNodeToZ3Var = new HashMap<Integer, BoolExpr>();
+		Map<Integer, Expr> calleeExpNodeToZ3Var = new HashMap<Integer, Expr>();
+		Set<Integer> calleeVisited = new HashSet<Integer>();
+		
+		// entry nodes take the caller's values; marking them visited stops the copy there
+		AbstractPDGNode entryPC = site.getEntryPC();
+		calleePDGNodeToZ3Var.put(entryPC.getNodeId(), 
+					PDGConstraint.getOrAddVar(pdgNodeToZ3Var, site.getCallerPC().getNodeId(), ctx));
+		calleeVisited.add(entryPC.getNodeId());
+		for (AbstractPDGNode actual : site.getActuals()) {
+			AbstractPDGNode formal = site.getFormal(actual);
+			calleePDGNodeToZ3Var.put(formal.getNodeId(), 
+						PDGConstraint.getOrAddVar(pdgNodeToZ3Var, actual.getNodeId(), ctx));
+			calleeExpNodeToZ3Var.put(formal.getNodeId(), 
+						Expression.getOrAddAnyVar(expNodeToZ3Var, actual, ctx));
+			calleeVisited.add(formal.getNodeId());
+		}
+		
+		// exit nodes are the caller's return nodes
+		for (AbstractPDGNode returnNode : site.getReturnNodes()) {
+			AbstractPDGNode exit = site.getExit(returnNode);
+			calleePDGNodeToZ3Var.put(exit.getNodeId(), 
+						PDGConstraint.getOrAddVar(pdgNodeToZ3Var, returnNode.getNodeId(), ctx));
+			if (PDGHelper.isExprNode(returnNode)) 
+				calleeExpNodeToZ3Var.put(exit.getNodeId(), 
+						Expression.getOrAddAnyVar(expNodeToZ3Var, returnNode, ctx));
+		}
+		for (AbstractPDGNode returnNode : site.getReturnNodes()) {
+			AbstractPDGNode exit = site.getExit(returnNode);
+			if (calleeVisited.contains(exit.getNodeId())) continue;
+			constraints.addAll(PDGConstraint.getSliceConstraints(exit.getNodeId(), pdg, ctx, 
+										calleeVisited, calleePDGNodeToZ3Var, calleeExpNodeToZ3Var, 
+										funcToConstraint, expConstraints));
+		}
+	}
+
+	/**
+	 * Encodes a call that can't affect the target (see BranchingProcedures) as a pc edge: every 
+	 * return node executes exactly when the call does, and the return values are left 
+	 * unconstrained.
+	 */
+	public static void getPassThroughConstraints(CallSite site, Context ctx, 
+											Map<Integer, BoolExpr> pdgNodeToZ3Var, 
+											Set<BoolExpr> constraints) 
+											throws Z3Exception {
+		if (PDGConstraint.debugMode) System.out.println("Passing through call site " + site.getId());
+		BoolExpr callerPCVar = PDGConstraint.getOrAddVar(pdgNodeToZ3Var, 
+											site.getCallerPC().getNodeId(), ctx);
+		for (AbstractPDGNode returnNode : site.getReturnNodes()) {
+			BoolExpr returnVar = PDGConstraint.getOrAddVar(pdgNodeToZ3Var, returnNode.getNodeId(), ctx);
+			constraints.add(ctx.MkEq(returnVar, callerPCVar));
+		}
 	}
 
 	public static void getEntryNodeConstraints(Set<AbstractPDGNode> nodes, 
@@ -109,9 +231,11 @@ public class InterProcedure {
 		// obtain all call site labels
 		Set<Integer> labels = PDGHelper.getAllSiteLabels(nodes, pdg);
 		
-		// assemble constraints
+		// assemble constraints: one of the call sites is chosen, and the chosen site's 
+		// values flow into the entry nodes
 		BoolExpr fullConstraint = null;
 		for (int labelId : labels) {
+			BoolExpr siteVar = Z3Addons.getCallSiteVar(ctx, labelId);
 			BoolExpr constraintPerLabel = null;
 			for (AbstractPDGNode node : nodes) {
 				AbstractPDGNode sourceLabel = PDGHelper.getLabelPredecessor(node, pdg, labelId);
@@ -130,11 +254,12 @@ public class InterProcedure {
 					Expr nodeExpVar = Expression.getOrAddAnyVar(expNodeToZ3Var, node, ctx);
 					Expr sourceLabelExpVar = Expression.getOrAddAnyVar(expNodeToZ3Var, sourceLabel, ctx);
 					BoolExpr expConstraint = ctx.MkImplies(nodePCVar, 
-												ctx.MkEq(nodeExpVar, sourceLabelExpVar));
+							Expression.getEq(node, nodeExpVar, sourceLabel, sourceLabelExpVar, ctx));
 					constraintPerLabel = Z3Addons.andConstraints(constraintPerLabel, ctx, expConstraint);	
 				}
 			}
-			fullConstraint = Z3Addons.orConstraints(fullConstraint, ctx, constraintPerLabel);
+			constraints.add(ctx.MkImplies(siteVar, constraintPerLabel));
+			fullConstraint = Z3Addons.orConstraints(fullConstraint, ctx, siteVar);
 		}
 		
 		constraints.add(fullConstraint);
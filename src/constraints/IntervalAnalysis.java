@@ -0,0 +1,394 @@
+package constraints;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import accrue.pdg.PDGEdge;
+import accrue.pdg.PDGEdgeType;
+import accrue.pdg.ProgramDependenceGraph;
+import accrue.pdg.node.AbstractPDGNode;
+import accrue.pdg.node.PDGNodeType;
+
+import com.microsoft.z3.ArithExpr;
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Expr;
+import com.microsoft.z3.Z3Exception;
+
+/**
+ * Interval abstract interpretation over the expression nodes of a PDG. Integer nodes 
+ * get an interval of the values they can take, boolean nodes an interval within [0, 1]. 
+ * Values flow along data edges and through the getBinop operators; nodes that keep 
+ * changing (loop phis and merges) are widened.
+ * 
+ * A target is infeasible if the guards it requires, refined against each other, 
+ * can't all take the value the target needs. Intervals of surviving queries can be 
+ * asserted as bounds to help the solver.
+ * 
+ * Intervals saturate at the bounds of a long instead of wrapping at the width of the 
+ * java type, so they only describe the LIA encoding, where values don't wrap either.
+ */
+public class IntervalAnalysis {
+	private static final long NEG_INF = Long.MIN_VALUE;
+	private static final long POS_INF = Long.MAX_VALUE;
+	private static final int WIDEN_AFTER = 3;
+	
+	private static Map<ProgramDependenceGraph, IntervalAnalysis> results = 
+					new WeakHashMap<ProgramDependenceGraph, IntervalAnalysis>();
+	
+	public static class Interval {
+		public final long lo;
+		public final long hi;
+		
+		public Interval(long lo, long hi) {
+			this.lo = lo;
+			this.hi = hi;
+		}
+		
+		public boolean isEmpty() {
+			return lo > hi;
+		}
+		
+		public boolean contains(long value) {
+			return (lo <= value) && (value <= hi);
+		}
+		
+		public boolean isConstant() {
+			return lo == hi;
+		}
+		
+		public Interval join(Interval other) {
+			if (other == null) return this;
+			return new Interval(Math.min(lo, other.lo), Math.max(hi, other.hi));
+		}
+		
+		public Interval meet(Interval other) {
+			return new Interval(Math.max(lo, other.lo), Math.min(hi, other.hi));
+		}
+		
+		public Interval widen(Interval next) {
+			return new Interval(next.lo < lo ? NEG_INF : lo, next.hi > hi ? POS_INF : hi);
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Interval)) return false;
+			return (lo == ((Interval) o).lo) && (hi == ((Interval) o).hi);
+		}
+		
+		@Override
+		public int hashCode() {
+			return (int) (lo ^ (hi >>> 32) ^ hi);
+		}
+		
+		@Override
+		public String toString() {
+			return "[" + (lo == NEG_INF ? "-inf" : lo) + ", " + (hi == POS_INF ? "+inf" : hi) + "]";
+		}
+	}
+	
+	private static final Interval TOP = new Interval(NEG_INF, POS_INF);
+	private static final Interval BOOL = new Interval(0, 1);
+	
+	private final ProgramDependenceGraph pdg;
+	private final Map<Integer, Interval> intervals = new HashMap<Integer, Interval>();
+	private final Map<Integer, Integer> updateCounts = new HashMap<Integer, Integer>();
+
+	public static synchronized IntervalAnalysis get(ProgramDependenceGraph pdg) {
+		IntervalAnalysis result = results.get(pdg);
+		if (result == null) {
+			result = new IntervalAnalysis(pdg);
+			results.put(pdg, result);
+		}
+		return result;
+	}
+	
+	private IntervalAnalysis(ProgramDependenceGraph pdg) {
+		this.pdg = pdg;
+		propagate();
+	}
+	
+	/**
+	 * Whether intervals hold under the current Expression.encoding; bit-vectors wrap.
+	 */
+	public static boolean isApplicable() {
+		return Expression.encoding != Expression.NumericEncoding.BIT_VECTOR;
+	}
+	
+	public Interval getInterval(int nodeId) {
+		Interval interval = intervals.get(nodeId);
+		return (interval == null) ? TOP : interval;
+	}
+	
+	public static boolean isBoolNode(AbstractPDGNode node) {
+		return Expression.isBoolName(Expression.getExpressionStr(node.getName())) || 
+					node.getJavaType().equals("Z");
+	}
+	
+	public static boolean isIntNode(AbstractPDGNode node) {
+		return !isBoolNode(node) && (Expression.getBitWidth(node.getJavaType()) != -1);
+	}
+	
+	private void propagate() {
+		Deque<AbstractPDGNode> workQueue = new ArrayDeque<AbstractPDGNode>();
+		for (AbstractPDGNode node : pdg.vertexSet()) {
+			if (PDGHelper.isExprNode(node)) workQueue.add(node);
+		}
+		while (!workQueue.isEmpty()) {
+			AbstractPDGNode node = workQueue.remove();
+			Interval value = evaluate(node);
+			if (value == null) continue;
+			int id = node.getNodeId();
+			Interval old = intervals.get(id);
+			if (old != null) {
+				value = value.join(old);
+				if (value.equals(old)) continue;
+				Integer count = updateCounts.get(id);
+				count = (count == null) ? 1 : count + 1;
+				updateCounts.put(id, count);
+				if (count >= WIDEN_AFTER) value = old.widen(value);
+			}
+			intervals.put(id, value);
+			for (PDGEdge edge : pdg.outgoingEdgesOf(node)) {
+				if (PDGHelper.isExprNode(edge.getTarget())) workQueue.add(edge.getTarget());
+			}
+		}
+	}
+	
+	// null means no value has reached the node yet
+	private Interval evaluate(AbstractPDGNode node) {
+		boolean isBool = isBoolNode(node);
+		Interval top = isBool ? BOOL : TOP;
+		if (!isBool && !isIntNode(node)) return TOP;
+		
+		if ((node.getNodeType() == PDGNodeType.BASE_VALUE) && pdg.incomingEdgesOf(node).isEmpty()) {
+			String name = node.getName();
+			if (name.equals("1")) return new Interval(1, 1);
+			if (name.equals("0")) return new Interval(0, 0);
+			try {
+				long value = Long.parseLong(name);
+				return new Interval(value, value);
+			} catch (NumberFormatException e) {
+				return top;
+			}
+		}
+		
+		String name = Expression.getExpressionStr(node.getName());
+		String[] binop = name.contains("phi") ? null : Expression.getBinop(name);
+		if (binop != null) {
+			AbstractPDGNode left = Expression.getSourceNode(binop[1], node, pdg);
+			AbstractPDGNode right = Expression.getSourceNode(binop[2], node, pdg);
+			if ((left == null) || (right == null)) return top;
+			Interval leftValue = intervals.get(left.getNodeId());
+			Interval rightValue = intervals.get(right.getNodeId());
+			if ((leftValue == null) || (rightValue == null)) return null;
+			return evaluateBinop(binop[0], leftValue, rightValue);
+		}
+		
+		// phis, merges and copies: the join of the expression sources
+		Interval value = null;
+		boolean hasSource = false;
+		for (PDGEdge edge : pdg.incomingEdgesOf(node)) {
+			AbstractPDGNode source = edge.getSource();
+			if (!PDGHelper.isExprNode(source)) continue;
+			hasSource = true;
+			Interval sourceValue = intervals.get(source.getNodeId());
+			if (sourceValue != null) value = sourceValue.join(value);
+		}
+		return hasSource ? value : top;
+	}
+	
+	private static long add(long first, long second) {
+		if ((first == NEG_INF) || (second == NEG_INF)) return NEG_INF;
+		if ((first == POS_INF) || (second == POS_INF)) return POS_INF;
+		long sum = first + second;
+		// saturate on overflow
+		if (((first ^ sum) & (second ^ sum)) < 0) return (first < 0) ? NEG_INF : POS_INF;
+		return sum;
+	}
+	
+	private static Interval getBool(boolean canBeFalse, boolean canBeTrue) {
+		return new Interval(canBeFalse ? 0 : 1, canBeTrue ? 1 : 0);
+	}
+	
+	private static Interval evaluateBinop(String op, Interval left, Interval right) {
+		switch (op) {
+			case "^":
+				if (left.isConstant() && right.isConstant()) {
+					long value = left.lo ^ right.lo;
+					return new Interval(value, value);
+				}
+				return BOOL;
+			case "+":
+				return new Interval(add(left.lo, right.lo), add(left.hi, right.hi));
+			case "<":
+				return getBool(left.hi >= right.lo, left.lo < right.hi);
+			case "<=":
+				return getBool(left.hi > right.lo, left.lo <= right.hi);
+			case ">":
+				return getBool(left.lo <= right.hi, left.hi > right.lo);
+			case ">=":
+				return getBool(left.lo < right.hi, left.hi >= right.lo);
+			default:
+				return TOP;
+		}
+	}
+	
+	/**
+	 * Collects the guards the target needs, following the pc edges that are 
+	 * conjunctive in the encoding. Merges and entries (disjunctions over callers) stop 
+	 * the walk.
+	 * 
+	 * @return guard node id -> required value
+	 */
+	public Map<Integer, Boolean> getRequiredGuards(int targetId) {
+		Map<Integer, Boolean> guards = new HashMap<Integer, Boolean>();
+		Set<Integer> visited = new HashSet<Integer>();
+		Deque<AbstractPDGNode> workQueue = new ArrayDeque<AbstractPDGNode>();
+		workQueue.add(pdg.getNodeById(targetId));
+		visited.add(targetId);
+		while (!workQueue.isEmpty()) {
+			AbstractPDGNode node = workQueue.remove();
+			for (PDGEdge edge : pdg.incomingEdgesOf(node)) {
+				AbstractPDGNode source = edge.getSource();
+				if (edge.getEdgeLabel() != null) {
+					// return pc equals callee exit pc
+					if (!PDGHelper.isReturnNode(node, pdg) || !PDGHelper.isPCNode(source)) continue;
+				} else if ((edge.getType() == PDGEdgeType.TRUE) || (edge.getType() == PDGEdgeType.FALSE)) {
+					guards.put(source.getNodeId(), edge.getType() == PDGEdgeType.TRUE);
+				} else if ((edge.getType() == PDGEdgeType.MERGE) || !PDGHelper.isPCNode(source)) {
+					continue;
+				}
+				if (visited.add(source.getNodeId())) workQueue.add(source);
+			}
+		}
+		return guards;
+	}
+	
+	// follows single source copies back to where the value is computed
+	private AbstractPDGNode getRoot(AbstractPDGNode node) {
+		Set<Integer> seen = new HashSet<Integer>();
+		while (seen.add(node.getNodeId())) {
+			String name = Expression.getExpressionStr(node.getName());
+			if (node.getNodeType() == PDGNodeType.BASE_VALUE || name.contains("phi") || 
+					Expression.getBinop(name) != null) 
+				return node;
+			AbstractPDGNode single = null;
+			for (PDGEdge edge : pdg.incomingEdgesOf(node)) {
+				if (!PDGHelper.isExprNode(edge.getSource())) continue;
+				if (single != null) return node;
+				single = edge.getSource();
+			}
+			if (single == null) return node;
+			node = single;
+		}
+		return node;
+	}
+	
+	/**
+	 * The target is infeasible if a guard it requires can't take the required value, 
+	 * or if the comparisons against constants among the required guards leave some 
+	 * value with an empty interval (e.g. password < 50 and password > 51).
+	 */
+	public boolean isInfeasible(int targetId) {
+		Map<Integer, Interval> refined = new HashMap<Integer, Interval>();
+		Deque<Map.Entry<Integer, Boolean>> required = 
+				new ArrayDeque<Map.Entry<Integer, Boolean>>(getRequiredGuards(targetId).entrySet());
+		Set<Integer> seen = new HashSet<Integer>();
+		while (!required.isEmpty()) {
+			Map.Entry<Integer, Boolean> guard = required.remove();
+			AbstractPDGNode node = getRoot(pdg.getNodeById(guard.getKey()));
+			boolean value = guard.getValue();
+			if (!seen.add(value ? node.getNodeId() : -node.getNodeId() - 1)) continue;
+			if (!getInterval(node.getNodeId()).contains(value ? 1 : 0)) {
+				if (PDGConstraint.debugMode) System.out.println("Guard can't be " + value + ": " + node.getName());
+				return true;
+			}
+			
+			String[] binop = Expression.getBinop(Expression.getExpressionStr(node.getName()));
+			if ((binop == null) || binop[0].equals("+") || binop[0].equals("^")) continue;
+			AbstractPDGNode left = Expression.getSourceNode(binop[1], node, pdg);
+			AbstractPDGNode right = Expression.getSourceNode(binop[2], node, pdg);
+			if ((left == null) || (right == null)) continue;
+			String op = value ? binop[0] : negate(binop[0]);
+			Interval rightValue = getInterval(right.getNodeId());
+			Interval leftValue = getInterval(left.getNodeId());
+			if (rightValue.isConstant() && !refine(getRoot(left), op, rightValue.lo, refined)) 
+				return true;
+			if (leftValue.isConstant() && !refine(getRoot(right), flip(op), leftValue.lo, refined)) 
+				return true;
+		}
+		return false;
+	}
+	
+	private static String negate(String op) {
+		switch (op) {
+			case "<": return ">=";
+			case "<=": return ">";
+			case ">": return "<=";
+			default: return "<";
+		}
+	}
+	
+	// x op k is k flip(op) x
+	private static String flip(String op) {
+		switch (op) {
+			case "<": return ">";
+			case "<=": return ">=";
+			case ">": return "<";
+			default: return "<=";
+		}
+	}
+	
+	// returns false if the refined interval is empty
+	private boolean refine(AbstractPDGNode node, String op, long bound, Map<Integer, Interval> refined) {
+		Interval current = refined.get(node.getNodeId());
+		if (current == null) current = getInterval(node.getNodeId());
+		Interval constraint;
+		switch (op) {
+			case "<":
+				constraint = new Interval(NEG_INF, add(bound, -1));
+				break;
+			case "<=":
+				constraint = new Interval(NEG_INF, bound);
+				break;
+			case ">":
+				constraint = new Interval(add(bound, 1), POS_INF);
+				break;
+			default:
+				constraint = new Interval(bound, POS_INF);
+				break;
+		}
+		current = current.meet(constraint);
+		refined.put(node.getNodeId(), current);
+		if (current.isEmpty() && PDGConstraint.debugMode) 
+			System.out.println("No value left for " + node.getName());
+		return !current.isEmpty();
+	}
+	
+	/**
+	 * Bounds on integer variables already in the slice. A node's variable is only 
+	 * constrained when the node executes, and then its value lies in the interval, 
+	 * so the bounds can be asserted unconditionally.
+	 */
+	public Set<BoolExpr> getBoundHints(Context ctx, Map<Integer, Expr> expNodeToZ3Var) 
+													throws Z3Exception {
+		Set<BoolExpr> hints = new LinkedHashSet<BoolExpr>();
+		for (Map.Entry<Integer, Expr> entry : expNodeToZ3Var.entrySet()) {
+			Expr var = entry.getValue();
+			Interval interval = intervals.get(entry.getKey());
+			if ((interval == null) || !(var instanceof ArithExpr) || var.IsIntNum()) continue;
+			if (interval.lo != NEG_INF) 
+				hints.add(ctx.MkGe((ArithExpr) var, ctx.MkInt(interval.lo)));
+			if (interval.hi != POS_INF) 
+				hints.add(ctx.MkLe((ArithExpr) var, ctx.MkInt(interval.hi)));
+		}
+		return hints;
+	}
+}
@@ -183,20 +183,14 @@ public class IntraProcedure {
 			constraints.add(ctx.MkEq(nodeVar, pcConstraint));
 	}
 
-	public static void addMergeConstraint(BoolExpr expConstraint, AbstractPDGNode node, 
-			ProgramDependenceGraph pdg, Context ctx, 
+	/**
+	 * @param expConstraint the disjunct of the node's expression constraint that 
+	 * takes the parent's value
+	 */
+	public static void addMergeConstraint(BoolExpr expConstraint, AbstractPDGNode parent, 
+			AbstractPDGNode node, ProgramDependenceGraph pdg, Context ctx, 
 			Map<Integer, BoolExpr> pdgNodeToZ3Var, 
-			Map<Integer, Expr> expNodeToZ3Var, 
 			Set<BoolExpr> constraints) throws Z3Exception {
-		Expr[] args = expConstraint.Args();
-		AbstractPDGNode parent = null;
-		for (PDGEdge incoming : pdg.incomingEdgesOf(node)) {
-			Expr expVar = expNodeToZ3Var.get(incoming.getSource().getNodeId());
-			if (expVar.equals(args[0]) || expVar.equals(args[1])) {
-				parent = incoming.getSource();
-				break;
-			}
-		}
 		AbstractPDGNode pcParent = PDGHelper.getSourceNodeByType(pdg.incomingEdgesOf(parent), 
 																PDGEdgeType.IMPLICIT);
 		BoolExpr pcParentVar = PDGConstraint.getOrAddVar(pdgNodeToZ3Var, pcParent.getNodeId(), ctx);
@@ -207,17 +201,21 @@ public class IntraProcedure {
 		constraints.add(ctx.MkImplies(expConstraint, parentVar));
 	}
 
-	public static void addMergeConstraints(BoolExpr expConstraint, AbstractPDGNode node, 
+	/**
+	 * Parents are found by node, not by matching the disjuncts' terms, which can 
+	 * coincide, e.g. when two parents are seeded with the same constant.
+	 */
+	public static void addMergeConstraints(AbstractPDGNode node, 
 							ProgramDependenceGraph pdg, Context ctx, 
 							Map<Integer, BoolExpr> pdgNodeToZ3Var, 
 							Map<Integer, Expr> expNodeToZ3Var, 
 							Set<BoolExpr> constraints) throws Z3Exception {
-		while (expConstraint.IsOr()) {
-			addMergeConstraint((BoolExpr) expConstraint.Args()[1], node, pdg, ctx, 
-										pdgNodeToZ3Var, expNodeToZ3Var, constraints);
-			expConstraint = (BoolExpr) expConstraint.Args()[0];
+		Expr nodeVar = Expression.getOrAddAnyVar(expNodeToZ3Var, node, ctx);
+		for (AbstractPDGNode parent : Expression.getMergeSources(node, pdg)) {
+			Expr parentVar = Expression.getOrAddAnyVar(expNodeToZ3Var, parent, ctx);
+			addMergeConstraint(Expression.getEq(node, nodeVar, parent, parentVar, ctx), parent, 
+										node, pdg, ctx, pdgNodeToZ3Var, constraints);
 		}
-		addMergeConstraint(expConstraint, node, pdg, ctx, pdgNodeToZ3Var, expNodeToZ3Var, constraints);
 	}
 
 	public static void getExpressionConstraints(AbstractPDGNode node, 
@@ -245,7 +243,7 @@ public class IntraProcedure {
 		BoolExpr nodeVar = PDGConstraint.getOrAddVar(pdgNodeToZ3Var, node.getNodeId(), ctx);
 		if (expConstraint != null) {
 			constraints.add(ctx.MkImplies(nodeVar, expConstraint));
-			if (PDGHelper.isPhiOrMergeNode(node, pdg)) addMergeConstraints(expConstraint, node, pdg, ctx, pdgNodeToZ3Var, 
+			if (PDGHelper.isPhiOrMergeNode(node, pdg)) addMergeConstraints(node, pdg, ctx, pdgNodeToZ3Var, 
 											expNodeToZ3Var, constraints);
 		}
 	}
@@ -255,8 +253,21 @@ public class IntraProcedure {
 												Map<Integer, Expr> expNodeToZ3Var,
 												Set<BoolExpr> constraints) 
 												throws Z3Exception {
+		getNonFunctionConstraints(node, pdg, ctx, pdgNodeToZ3Var, expNodeToZ3Var, constraints, constraints);
+	}
+
+	/**
+	 * Same as above, but expression constraints are collected separately from 
+	 * control flow constraints so they can be added lazily.
+	 */
+	public static void getNonFunctionConstraints(AbstractPDGNode node, ProgramDependenceGraph pdg,
+												Context ctx, Map<Integer, BoolExpr> pdgNodeToZ3Var,
+												Map<Integer, Expr> expNodeToZ3Var,
+												Set<BoolExpr> constraints,
+												Set<BoolExpr> expConstraints) 
+												throws Z3Exception {
 		getControlFlowConstraints(node, pdg, ctx, pdgNodeToZ3Var, expNodeToZ3Var, constraints);
-		getExpressionConstraints(node, pdg, ctx, pdgNodeToZ3Var, expNodeToZ3Var, constraints);	
+		getExpressionConstraints(node, pdg, ctx, pdgNodeToZ3Var, expNodeToZ3Var, expConstraints);	
 	}
 
 }
@@ -0,0 +1,86 @@
+package constraints;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import accrue.pdg.ProgramDependenceGraph;
+
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Expr;
+import com.microsoft.z3.Model;
+import com.microsoft.z3.Solver;
+import com.microsoft.z3.Status;
+import com.microsoft.z3.Z3Exception;
+
+/**
+ * Counterexample guided refinement over the expression constraints of a slice. The 
+ * control flow constraints are solved first; expression constraints are only added 
+ * once a model violates them, since most infeasible paths are infeasible for control 
+ * flow reasons alone.
+ */
+public class LazyRefinement {
+
+	/**
+	 * @param nodeID
+	 * @param pdg
+	 * @param ctx
+	 * @return a model of the full constraint set for the node, or null if it is unsatisfiable
+	 * @throws Z3Exception
+	 */
+	public static Model check(int nodeID, ProgramDependenceGraph pdg, Context ctx) 
+													throws Z3Exception {
+		Set<BoolExpr> expConstraints = new LinkedHashSet<BoolExpr>();
+		Set<BoolExpr> constraints = PDGConstraint.getConstraints(nodeID, pdg, ctx, 
+												new HashSet<Integer>(), 
+												new HashMap<Integer, BoolExpr>(),
+												new HashMap<Integer, Expr>(),
+												new HashMap<Integer, BoolExpr>(),
+												expConstraints);
+		return check(ctx, constraints, expConstraints);
+	}
+
+	public static Model check(Context ctx, Set<BoolExpr> constraints, Set<BoolExpr> expConstraints) 
+													throws Z3Exception {
+		Set<BoolExpr> allConstraints = new LinkedHashSet<BoolExpr>(constraints);
+		allConstraints.addAll(expConstraints);
+		Solver s = ConstraintCheck.getSolver(ctx, allConstraints);
+		for (BoolExpr constraint : constraints)
+			s.Assert(constraint);
+		
+		Set<BoolExpr> pending = new LinkedHashSet<BoolExpr>(expConstraints);
+		int iterations = 0;
+		while (true) {
+			iterations++;
+			if (s.Check() != Status.SATISFIABLE) {
+				printStats(iterations, expConstraints.size() - pending.size(), expConstraints.size());
+				return null;
+			}
+			Model model = s.Model();
+			
+			// refine with the expression constraints the model violates
+			List<BoolExpr> violated = new ArrayList<BoolExpr>();
+			for (BoolExpr expConstraint : pending) {
+				if (!model.Eval(expConstraint, true).IsTrue()) violated.add(expConstraint);
+			}
+			if (violated.isEmpty()) {
+				printStats(iterations, expConstraints.size() - pending.size(), expConstraints.size());
+				return model;
+			}
+			for (BoolExpr expConstraint : violated) {
+				s.Assert(expConstraint);
+				pending.remove(expConstraint);
+			}
+		}
+	}
+
+	private static void printStats(int iterations, int added, int total) {
+		if (PDGConstraint.debugMode) 
+			System.out.println("Refinement: " + iterations + " iterations, " + added + " of " + 
+									total + " expression constraints added");
+	}
+}
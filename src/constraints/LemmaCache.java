@@ -0,0 +1,331 @@
+package constraints;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+import accrue.pdg.PDGEdge;
+import accrue.pdg.ProgramDependenceGraph;
+import accrue.pdg.node.AbstractPDGNode;
+
+import com.microsoft.z3.BitVecNum;
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Expr;
+import com.microsoft.z3.IntNum;
+import com.microsoft.z3.Model;
+import com.microsoft.z3.Solver;
+import com.microsoft.z3.Status;
+import com.microsoft.z3.Z3Exception;
+
+/**
+ * Facts about procedures proven while answering earlier queries, reused as extra 
+ * assertions by later queries that slice through the same procedures. 
+ * 
+ * Learning is a separate step, meant to run after a query has been answered, so the 
+ * proofs stay off the query's path. Facts are proven from the query's slice constraints without the assertion of its 
+ * target and without the function summaries, which tie a callee to particular call 
+ * sites; what is left encodes each procedure's entry over all of its call sites, so 
+ * the facts hold in every calling context. Interval hints and reused lemmas are left 
+ * out as well, so facts never rest on other derived facts. They are stored in 
+ * terms of node IDs, keyed by procedure name and a hash of the whole PDG, since they 
+ * depend on every caller, and instantiated with the variables of each later query.
+ * A candidate that failed is retried once a query encodes more of the program. Candidates come from a model 
+ * and are then checked one by one:
+ * - dead nodes: the pc of a node in the procedure is always false
+ * - constant returns: an exit node always has the same value when it executes
+ * - return implications: a boolean exit value implies the value of a boolean 
+ *   expression in the procedure, e.g. returning true implies an argument check held
+ */
+public class LemmaCache {
+	// solver checks spent on candidates per query
+	public static int maxChecks = 100;
+
+	private static Map<String, Set<Lemma>> lemmas = new HashMap<String, Set<Lemma>>();
+	// nodes already tried as candidates, per procedure key, with the number of nodes the 
+	// query they were tried in encoded
+	private static Map<String, Map<Integer, Integer>> tried = 
+					new HashMap<String, Map<Integer, Integer>>();
+	private static Map<ProgramDependenceGraph, Map<String, String>> procedureKeys = 
+					new WeakHashMap<ProgramDependenceGraph, Map<String, String>>();
+
+	private enum Kind { DEAD, CONSTANT, IMPLIED }
+
+	private static class Lemma {
+		final Kind kind;
+		final int nodeId;
+		final Object value;
+		final int guardId;
+		final boolean guardValue;
+
+		Lemma(Kind kind, int nodeId, Object value, int guardId, boolean guardValue) {
+			this.kind = kind;
+			this.nodeId = nodeId;
+			this.value = value;
+			this.guardId = guardId;
+			this.guardValue = guardValue;
+		}
+
+		BoolExpr instantiate(ProgramDependenceGraph pdg, Context ctx, 
+								Map<Integer, BoolExpr> pdgNodeToZ3Var, 
+								Map<Integer, Expr> expNodeToZ3Var) throws Z3Exception {
+			switch (kind) {
+				case DEAD:
+					if (!pdgNodeToZ3Var.containsKey(nodeId)) return null;
+					return ctx.MkNot(pdgNodeToZ3Var.get(nodeId));
+				case CONSTANT:
+					if (!pdgNodeToZ3Var.containsKey(nodeId) || !expNodeToZ3Var.containsKey(nodeId)) 
+						return null;
+					Expr literal = ConstantPropagation.getLiteral(pdg.getNodeById(nodeId), value, ctx);
+					return ctx.MkImplies(pdgNodeToZ3Var.get(guardId), 
+								Expression.getEq(expNodeToZ3Var.get(nodeId), literal, ctx));
+				default:
+					if (!pdgNodeToZ3Var.containsKey(guardId) || !expNodeToZ3Var.containsKey(guardId) || 
+							!expNodeToZ3Var.containsKey(nodeId)) 
+						return null;
+					BoolExpr guard = ctx.MkAnd(new BoolExpr[] {pdgNodeToZ3Var.get(guardId), 
+								ctx.MkEq(expNodeToZ3Var.get(guardId), ctx.MkBool(guardValue))});
+					return ctx.MkImplies(guard, 
+								ctx.MkEq(expNodeToZ3Var.get(nodeId), ctx.MkBool((Boolean) value)));
+			}
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Lemma)) return false;
+			Lemma lemma = (Lemma) other;
+			return (kind == lemma.kind) && (nodeId == lemma.nodeId) && (guardId == lemma.guardId) &&
+					(guardValue == lemma.guardValue) && 
+					((value == null) ? (lemma.value == null) : value.equals(lemma.value));
+		}
+
+		@Override
+		public int hashCode() {
+			return (kind.ordinal() * 31 + nodeId) * 31 + guardId;
+		}
+	}
+
+	/**
+	 * @return the cached facts about every procedure with an encoded node
+	 */
+	public static synchronized Set<BoolExpr> getLemmas(ProgramDependenceGraph pdg, Context ctx, 
+										Map<Integer, BoolExpr> pdgNodeToZ3Var, 
+										Map<Integer, Expr> expNodeToZ3Var) throws Z3Exception {
+		Set<BoolExpr> instances = new LinkedHashSet<BoolExpr>();
+		for (String key : getEncodedProcedures(pdg, pdgNodeToZ3Var, expNodeToZ3Var).keySet()) {
+			if (!lemmas.containsKey(key)) continue;
+			for (Lemma lemma : lemmas.get(key)) {
+				BoolExpr instance = lemma.instantiate(pdg, ctx, pdgNodeToZ3Var, expNodeToZ3Var);
+				if (instance != null) instances.add(instance);
+			}
+		}
+		if (PDGConstraint.debugMode) System.out.println("Lemmas reused: " + instances.size());
+		return instances;
+	}
+
+	/**
+	 * Proves and caches facts about the procedures in the slice of a query's target, 
+	 * which is encoded again for the proofs; call it after the query was answered.
+	 */
+	public static void learn(int nodeID, ProgramDependenceGraph pdg, Context ctx, 
+										SlicePolicy policy) throws Z3Exception {
+		Map<Integer, BoolExpr> pdgNodeToZ3Var = new HashMap<Integer, BoolExpr>();
+		Map<Integer, Expr> expNodeToZ3Var = new HashMap<Integer, Expr>();
+		if (PDGConstraint.propagateConstants) 
+			ConstantPropagation.get(pdg).seed(nodeID, ctx, pdgNodeToZ3Var, expNodeToZ3Var);
+		Map<Integer, BoolExpr> funcToConstraint = new HashMap<Integer, BoolExpr>();
+		Set<BoolExpr> constraints = PDGConstraint.getConstraints(nodeID, pdg, ctx, 
+										new HashSet<Integer>(), pdgNodeToZ3Var, expNodeToZ3Var, 
+										funcToConstraint, null, policy);
+		// the function summaries tie callees to particular call sites, while entry nodes 
+		// are encoded over all of them
+		constraints.removeAll(funcToConstraint.values());
+		learn(pdg, ctx, constraints, pdgNodeToZ3Var.get(nodeID), pdgNodeToZ3Var, expNodeToZ3Var);
+	}
+
+	/**
+	 * @param constraints the query's slice constraints, without function summaries, 
+	 * interval hints or lemmas
+	 * @param base the assertion of the query's target, left out of the proofs
+	 */
+	private static synchronized void learn(ProgramDependenceGraph pdg, Context ctx, 
+										Set<BoolExpr> constraints, BoolExpr base,
+										Map<Integer, BoolExpr> pdgNodeToZ3Var, 
+										Map<Integer, Expr> expNodeToZ3Var) throws Z3Exception {
+		Set<BoolExpr> program = new LinkedHashSet<BoolExpr>(constraints);
+		program.remove(base);
+		Solver s = ConstraintCheck.getSolver(ctx, program);
+		for (BoolExpr constraint : program)
+			s.Assert(constraint);
+		if (s.Check() != Status.SATISFIABLE) return;
+		Model model = s.Model();
+		
+		int[] checks = new int[] {0};
+		int learned = 0;
+		Map<String, List<AbstractPDGNode>> procedures = 
+					getEncodedProcedures(pdg, pdgNodeToZ3Var, expNodeToZ3Var);
+		for (Map.Entry<String, List<AbstractPDGNode>> procedure : procedures.entrySet()) {
+			Map<Integer, Integer> procedureTried = tried.get(procedure.getKey());
+			if (procedureTried == null) {
+				procedureTried = new HashMap<Integer, Integer>();
+				tried.put(procedure.getKey(), procedureTried);
+			}
+			Set<Lemma> procedureLemmas = lemmas.get(procedure.getKey());
+			if (procedureLemmas == null) {
+				procedureLemmas = new LinkedHashSet<Lemma>();
+				lemmas.put(procedure.getKey(), procedureLemmas);
+			}
+			int before = procedureLemmas.size();
+			
+			for (AbstractPDGNode node : procedure.getValue()) {
+				if (checks[0] >= maxChecks) break;
+				Integer triedWith = procedureTried.get(node.getNodeId());
+				if ((triedWith != null) && (triedWith >= pdgNodeToZ3Var.size())) continue;
+				procedureTried.put(node.getNodeId(), pdgNodeToZ3Var.size());
+				learnNode(node, procedure.getValue(), pdg, ctx, s, model, 
+							pdgNodeToZ3Var, expNodeToZ3Var, procedureLemmas, checks);
+			}
+			learned += procedureLemmas.size() - before;
+		}
+		if (PDGConstraint.debugMode) 
+			System.out.println("Lemmas learned: " + learned + " in " + checks[0] + " checks");
+	}
+
+	private static void learnNode(AbstractPDGNode node, List<AbstractPDGNode> procedureNodes, 
+										ProgramDependenceGraph pdg, Context ctx, Solver s, Model model,
+										Map<Integer, BoolExpr> pdgNodeToZ3Var, 
+										Map<Integer, Expr> expNodeToZ3Var, 
+										Set<Lemma> procedureLemmas, int[] checks) throws Z3Exception {
+		int id = node.getNodeId();
+		BoolExpr pcVar = pdgNodeToZ3Var.get(id);
+		if ((pcVar == null) || pcVar.IsFalse() || pcVar.IsTrue()) return;
+		
+		if (!model.Eval(pcVar, true).IsTrue()) {
+			checks[0]++;
+			if (isValid(s, pcVar)) {
+				procedureLemmas.add(new Lemma(Kind.DEAD, id, null, id, false));
+				return;
+			}
+		}
+		
+		Expr expVar = expNodeToZ3Var.get(id);
+		if ((expVar == null) || !PDGHelper.isExitNode(node, pdg)) return;
+		
+		// constant return
+		Object value = getValue(model.Eval(expVar, true));
+		if (value != null) {
+			checks[0]++;
+			Expr literal = ConstantPropagation.getLiteral(node, value, ctx);
+			if (isValid(s, pcVar, ctx.MkNot(Expression.getEq(expVar, literal, ctx)))) {
+				procedureLemmas.add(new Lemma(Kind.CONSTANT, id, value, id, false));
+				return;
+			}
+		}
+		
+		// what a boolean return value implies about other boolean expressions
+		if (!expVar.IsBool()) return;
+		for (boolean returned : new boolean[] {true, false}) {
+			BoolExpr guard = ctx.MkEq(expVar, ctx.MkBool(returned));
+			s.Push();
+			s.Assert(pcVar);
+			s.Assert(guard);
+			checks[0]++;
+			if (s.Check() == Status.SATISFIABLE) {
+				Model guardModel = s.Model();
+				for (AbstractPDGNode other : procedureNodes) {
+					if (checks[0] >= maxChecks) break;
+					Expr otherVar = expNodeToZ3Var.get(other.getNodeId());
+					if ((other == node) || (otherVar == null) || !otherVar.IsBool() || 
+							!pdgNodeToZ3Var.containsKey(other.getNodeId()) || otherVar.IsTrue() || 
+							otherVar.IsFalse()) 
+						continue;
+					Expr otherValue = guardModel.Eval(otherVar, true);
+					if (!otherValue.IsTrue() && !otherValue.IsFalse()) continue;
+					checks[0]++;
+					if (isValid(s, ctx.MkNot(ctx.MkEq(otherVar, otherValue)))) {
+						procedureLemmas.add(new Lemma(Kind.IMPLIED, other.getNodeId(), 
+													otherValue.IsTrue(), id, returned));
+					}
+				}
+			}
+			s.Pop();
+		}
+	}
+
+	/**
+	 * @return true if the assertions are inconsistent with the solver's, i.e. their
+	 * negation is implied
+	 */
+	private static boolean isValid(Solver s, BoolExpr... assertions) throws Z3Exception {
+		s.Push();
+		for (BoolExpr assertion : assertions)
+			s.Assert(assertion);
+		boolean valid = (s.Check() == Status.UNSATISFIABLE);
+		s.Pop();
+		return valid;
+	}
+
+	private static Object getValue(Expr value) throws Z3Exception {
+		if (value.IsTrue()) return Boolean.TRUE;
+		if (value.IsFalse()) return Boolean.FALSE;
+		if (value.IsIntNum()) return ((IntNum) value).Int64();
+		if (value.IsBVNumeral()) return ((BitVecNum) value).Long();
+		return null;
+	}
+
+	/**
+	 * Encoded nodes grouped by the key of their procedure.
+	 */
+	private static Map<String, List<AbstractPDGNode>> getEncodedProcedures(ProgramDependenceGraph pdg,
+										Map<Integer, BoolExpr> pdgNodeToZ3Var, 
+										Map<Integer, Expr> expNodeToZ3Var) {
+		Map<String, String> keys = getProcedureKeys(pdg);
+		Set<Integer> encoded = new HashSet<Integer>(pdgNodeToZ3Var.keySet());
+		encoded.addAll(expNodeToZ3Var.keySet());
+		
+		Map<String, List<AbstractPDGNode>> procedures = new TreeMap<String, List<AbstractPDGNode>>();
+		for (int id : encoded) {
+			AbstractPDGNode node = pdg.getNodeById(id);
+			String key = keys.get(node.getProcedureName());
+			List<AbstractPDGNode> nodes = procedures.get(key);
+			if (nodes == null) {
+				nodes = new ArrayList<AbstractPDGNode>();
+				procedures.put(key, nodes);
+			}
+			nodes.add(node);
+		}
+		return procedures;
+	}
+
+	/**
+	 * Keys of the form name#hash, where the hash covers every node of the PDG and their 
+	 * incoming edges: facts about a procedure depend on its callers as well, so they are 
+	 * not reused once anything changed.
+	 */
+	private static Map<String, String> getProcedureKeys(ProgramDependenceGraph pdg) {
+		Map<String, String> keys = procedureKeys.get(pdg);
+		if (keys != null) return keys;
+		
+		int pdgHash = 0;
+		for (AbstractPDGNode node : pdg.vertexSet()) {
+			int hash = (node.getNodeId() * 31 + node.getName().hashCode()) * 31 + 
+							node.getNodeType().ordinal();
+			for (PDGEdge edge : pdg.incomingEdgesOf(node)) {
+				hash += edge.getSource().getNodeId() * 17 + edge.getType().ordinal();
+			}
+			pdgHash += hash;
+		}
+		keys = new HashMap<String, String>();
+		for (AbstractPDGNode node : pdg.vertexSet()) {
+			keys.put(node.getProcedureName(), node.getProcedureName() + "#" + Integer.toHexString(pdgHash));
+		}
+		procedureKeys.put(pdg, keys);
+		return keys;
+	}
+}
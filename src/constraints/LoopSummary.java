@@ -0,0 +1,151 @@
+package constraints;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import accrue.pdg.PDGEdge;
+import accrue.pdg.ProgramDependenceGraph;
+import accrue.pdg.node.AbstractPDGNode;
+
+import com.microsoft.z3.ArithExpr;
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Expr;
+import com.microsoft.z3.Z3Exception;
+
+import constraints.IntervalAnalysis.Interval;
+import constraints.Loops.Loop;
+
+/**
+ * Encodes a loop with one set of constraints, whatever its trip count. The loop's
+ * variables stand for the iteration it exits from: nodes other than headers are
+ * encoded as usual, and a header's phi, instead of being equal to one of its
+ * sources, only satisfies invariants that hold in every iteration:
+ *
+ *   - its interval from IntervalAnalysis, which widens loop phis, and
+ *   - if every back edge adds a non-negative (non-positive) amount to the header,
+ *     that it is at least (at most) one of its values entering the loop.
+ *
+ * This over-approximates the loop, so it can only turn UNSAT answers into SAT ones.
+ */
+public class LoopSummary {
+
+	public enum Monotonicity {INCREASING, DECREASING, UNKNOWN}
+
+	public static void getConstraints(Loop loop, ProgramDependenceGraph pdg, Context ctx,
+									Map<Integer, BoolExpr> pdgNodeToZ3Var,
+									Map<Integer, Expr> expNodeToZ3Var,
+									Set<BoolExpr> constraints,
+									Set<BoolExpr> expConstraints) throws Z3Exception {
+		if (PDGConstraint.debugMode) System.out.println("Summarizing loop " + loop.getId());
+		for (int id : loop.getNodes()) {
+			AbstractPDGNode node = pdg.getNodeById(id);
+			if (!loop.isHeader(id)) {
+				IntraProcedure.getNonFunctionConstraints(node, pdg, ctx, pdgNodeToZ3Var,
+												expNodeToZ3Var, constraints, expConstraints);
+				continue;
+			}
+			IntraProcedure.getControlFlowConstraints(node, pdg, ctx, pdgNodeToZ3Var,
+												expNodeToZ3Var, constraints);
+			BoolExpr invariant = getInvariant(node, loop, pdg, ctx, expNodeToZ3Var);
+			if (invariant != null) {
+				BoolExpr nodeVar = PDGConstraint.getOrAddVar(pdgNodeToZ3Var, id, ctx);
+				expConstraints.add(ctx.MkImplies(nodeVar, invariant));
+			}
+		}
+	}
+
+	/**
+	 * @return the invariant of the header's value, or null if nothing is known
+	 */
+	public static BoolExpr getInvariant(AbstractPDGNode header, Loop loop,
+										ProgramDependenceGraph pdg, Context ctx,
+										Map<Integer, Expr> expNodeToZ3Var) throws Z3Exception {
+		if (!PDGHelper.isExprNode(header) || !IntervalAnalysis.isIntNode(header)) return null;
+		Expr headerVar = Expression.getOrAddAnyVar(expNodeToZ3Var, header, ctx);
+		// bit-vectors wrap around, so neither invariant holds for them
+		if (!(headerVar instanceof ArithExpr)) return null;
+		ArithExpr value = (ArithExpr) headerVar;
+
+		BoolExpr invariant = null;
+		Interval interval = IntervalAnalysis.get(pdg).getInterval(header.getNodeId());
+		if (interval.lo != Long.MIN_VALUE)
+			invariant = Z3Addons.andConstraints(invariant, ctx, ctx.MkGe(value, ctx.MkInt(interval.lo)));
+		if (interval.hi != Long.MAX_VALUE)
+			invariant = Z3Addons.andConstraints(invariant, ctx, ctx.MkLe(value, ctx.MkInt(interval.hi)));
+
+		Monotonicity monotonicity = getMonotonicity(header, loop, pdg);
+		if (monotonicity == Monotonicity.UNKNOWN) return invariant;
+		if (PDGConstraint.debugMode) System.out.println(header.getName() + " is " + monotonicity);
+		BoolExpr bound = null;
+		for (PDGEdge edge : Loops.getEdges(pdg.incomingEdgesOf(header))) {
+			AbstractPDGNode source = edge.getSource();
+			if (loop.contains(source.getNodeId()) || !PDGHelper.isExprNode(source)) continue;
+			ArithExpr initial = (ArithExpr) Expression.getOrAddAnyVar(expNodeToZ3Var, source, ctx);
+			BoolExpr fromInitial = (monotonicity == Monotonicity.INCREASING) ?
+										ctx.MkGe(value, initial) : ctx.MkLe(value, initial);
+			bound = Z3Addons.orConstraints(bound, ctx, fromInitial);
+		}
+		return Z3Addons.andConstraints(invariant, ctx, bound);
+	}
+
+	/**
+	 * Follows each back edge of the header to a sum of the header and a step, through
+	 * copies within the loop, and combines the signs of the steps.
+	 */
+	public static Monotonicity getMonotonicity(AbstractPDGNode header, Loop loop,
+												ProgramDependenceGraph pdg) {
+		Monotonicity result = null;
+		for (PDGEdge edge : Loops.getEdges(pdg.incomingEdgesOf(header))) {
+			AbstractPDGNode source = edge.getSource();
+			if (!loop.contains(source.getNodeId()) || !PDGHelper.isExprNode(source)) continue;
+			Monotonicity step = getStep(source, header, loop, pdg);
+			if ((step == Monotonicity.UNKNOWN) || ((result != null) && (result != step)))
+				return Monotonicity.UNKNOWN;
+			result = step;
+		}
+		return (result == null) ? Monotonicity.UNKNOWN : result;
+	}
+
+	private static Monotonicity getStep(AbstractPDGNode node, AbstractPDGNode header, Loop loop,
+										ProgramDependenceGraph pdg) {
+		node = skipCopies(node, loop, pdg);
+		String name = Expression.getExpressionStr(node.getName());
+		String[] binop = name.contains("phi") ? null : Expression.getBinop(name);
+		if ((binop == null) || !binop[0].equals("+")) return Monotonicity.UNKNOWN;
+
+		AbstractPDGNode left = Expression.getSourceNode(binop[1], node, pdg);
+		AbstractPDGNode right = Expression.getSourceNode(binop[2], node, pdg);
+		if ((left == null) || (right == null)) return Monotonicity.UNKNOWN;
+		AbstractPDGNode step;
+		if (skipCopies(left, loop, pdg) == header) step = right;
+		else if (skipCopies(right, loop, pdg) == header) step = left;
+		else return Monotonicity.UNKNOWN;
+
+		Interval interval = IntervalAnalysis.get(pdg).getInterval(step.getNodeId());
+		if (interval.lo >= 0) return Monotonicity.INCREASING;
+		if (interval.hi <= 0) return Monotonicity.DECREASING;
+		return Monotonicity.UNKNOWN;
+	}
+
+	// the node a chain of single-source copies within the loop starts from
+	private static AbstractPDGNode skipCopies(AbstractPDGNode node, Loop loop,
+												ProgramDependenceGraph pdg) {
+		Set<Integer> seen = new HashSet<Integer>();
+		while (seen.add(node.getNodeId()) && !loop.isHeader(node.getNodeId())) {
+			String name = Expression.getExpressionStr(node.getName());
+			if (name.contains("phi") || (Expression.getBinop(name) != null)) return node;
+			AbstractPDGNode copied = null;
+			for (PDGEdge edge : Loops.getEdges(pdg.incomingEdgesOf(node))) {
+				AbstractPDGNode source = edge.getSource();
+				if (!PDGHelper.isExprNode(source)) continue;
+				if (copied != null) return node;
+				copied = source;
+			}
+			if ((copied == null) || !loop.contains(copied.getNodeId())) return node;
+			node = copied;
+		}
+		return node;
+	}
+}
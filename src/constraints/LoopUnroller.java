@@ -0,0 +1,284 @@
+package constraints;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import accrue.pdg.PDGEdge;
+import accrue.pdg.ProgramDependenceGraph;
+import accrue.pdg.node.AbstractPDGNode;
+
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Expr;
+import com.microsoft.z3.Solver;
+import com.microsoft.z3.Status;
+import com.microsoft.z3.Z3Exception;
+
+import constraints.Loops.Loop;
+import constraints.SlicePolicy.LoopMode;
+
+/**
+ * Checks reachability of a node with the loops in its slice unrolled, so a phi node
+ * at a loop header can hold a different value in every iteration. Iteration j of a
+ * loop gets its own pc and expression variables; its headers read the values from
+ * before the loop when j = 0 and the back edge values of iteration j - 1 otherwise.
+ * The slice outside the loop sees the values of the last iteration that ran.
+ *
+ * The number of iterations k is deepened one at a time on a live solver: iterations
+ * stay asserted, and only the linkage to the rest of the slice and the assumption
+ * that no iteration k runs are pushed and popped. Deepening stops at the first k
+ * where the target is reachable, or at maxIterations.
+ */
+public class LoopUnroller {
+	private final ProgramDependenceGraph pdg;
+	private final Context ctx;
+	private final Map<Integer, BoolExpr> pdgNodeToZ3Var = new HashMap<Integer, BoolExpr>();
+	private final Map<Integer, Expr> expNodeToZ3Var = new HashMap<Integer, Expr>();
+	// per loop, the variables of each iteration encoded so far
+	private final Map<Loop, List<Map<Integer, BoolExpr>>> pcIterations =
+										new HashMap<Loop, List<Map<Integer, BoolExpr>>>();
+	private final Map<Loop, List<Map<Integer, Expr>>> expIterations =
+										new HashMap<Loop, List<Map<Integer, Expr>>>();
+	private Solver solver;
+
+	private LoopUnroller(ProgramDependenceGraph pdg, Context ctx) {
+		this.pdg = pdg;
+		this.ctx = ctx;
+	}
+
+	/**
+	 * @return SATISFIABLE if the node is reachable within maxIterations iterations of
+	 * every loop, UNSATISFIABLE if it is unreachable and the loops in its slice can't 
+	 * run any longer than the iterations tried, and UNKNOWN otherwise, including when the 
+	 * slice contains a loop that can't be unrolled (see Loop.isUnrollable)
+	 */
+	public static Status check(int nodeID, ProgramDependenceGraph pdg, Context ctx,
+								int maxIterations) throws Z3Exception {
+		return new LoopUnroller(pdg, ctx).check(nodeID, maxIterations);
+	}
+
+	private Status check(int nodeID, int maxIterations) throws Z3Exception {
+		SlicePolicy policy = new SlicePolicy(null, -1, -1, LoopMode.UNROLL);
+		Set<Integer> visited = new HashSet<Integer>();
+		Map<Integer, BoolExpr> funcToConstraint = new HashMap<Integer, BoolExpr>();
+		Set<BoolExpr> constraints = new LinkedHashSet<BoolExpr>();
+
+		BoolExpr base = Z3Addons.getFreshBoolVar(ctx);
+		pdgNodeToZ3Var.put(nodeID, base);
+		constraints.add(base);
+		constraints.addAll(PDGConstraint.getSliceConstraints(nodeID, pdg, ctx, visited,
+									pdgNodeToZ3Var, expNodeToZ3Var, funcToConstraint, null, policy));
+
+		// slice whatever flows into the loops reached so far, which may reach more loops
+		List<Loop> loops = new ArrayList<Loop>();
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (Loop loop : Loops.get(pdg).getLoops()) {
+				if (!loop.isUnrollable() || loops.contains(loop) || !isReached(loop, visited))
+					continue;
+				loops.add(loop);
+				changed = true;
+				for (PDGEdge edge : loop.getEntryEdges()) {
+					int sourceId = edge.getSource().getNodeId();
+					if (visited.contains(sourceId)) continue;
+					constraints.addAll(PDGConstraint.getSliceConstraints(sourceId, pdg, ctx, visited,
+									pdgNodeToZ3Var, expNodeToZ3Var, funcToConstraint, null, policy));
+				}
+			}
+		}
+		constraints.addAll(funcToConstraint.values());
+		// loops that can't be unrolled are only traversed once, so UNSAT isn't final
+		boolean exhaustive = true;
+		for (Loop loop : Loops.get(pdg).getLoops()) {
+			if (!loop.isUnrollable() && isReached(loop, visited)) exhaustive = false;
+		}
+
+		// the unrolled iterations add arithmetic the outer slice's logic may not cover
+		solver = ctx.MkSolver();
+		for (BoolExpr constraint : constraints)
+			solver.Assert(constraint);
+		if (loops.isEmpty()) return getResult(solver.Check(), exhaustive);
+
+		for (Loop loop : loops) {
+			pcIterations.put(loop, new ArrayList<Map<Integer, BoolExpr>>());
+			expIterations.put(loop, new ArrayList<Map<Integer, Expr>>());
+			addIteration(loop);
+		}
+
+		for (int k = 1; k <= maxIterations; k++) {
+			List<BoolExpr> unwinding = new ArrayList<BoolExpr>();
+			for (Loop loop : loops) {
+				addIteration(loop);
+				for (int header : loop.getHeaders()) {
+					unwinding.add(ctx.MkNot(pcIterations.get(loop).get(k).get(header)));
+				}
+			}
+
+			solver.Push();
+			for (Loop loop : loops) {
+				for (BoolExpr link : getLinkConstraints(loop, k))
+					solver.Assert(link);
+			}
+			Status status = solver.Check(unwinding.toArray(new BoolExpr[unwinding.size()]));
+			if (PDGConstraint.debugMode) System.out.println("Unrolled " + k + " iterations: " + status);
+			solver.Pop();
+			if (status == Status.SATISFIABLE) return status;
+			if (!canRunLonger(loops, k)) return getResult(Status.UNSATISFIABLE, exhaustive);
+		}
+		return Status.UNKNOWN;
+	}
+
+	private static Status getResult(Status status, boolean exhaustive) {
+		return ((status == Status.UNSATISFIABLE) && !exhaustive) ? Status.UNKNOWN : status;
+	}
+
+	/**
+	 * Whether some loop can start iteration k. The loop nodes aren't linked to the rest 
+	 * of the slice here, so this over-approximates; if no loop can, deeper unrolling 
+	 * won't find anything new.
+	 */
+	private boolean canRunLonger(List<Loop> loops, int k) throws Z3Exception {
+		BoolExpr longer = null;
+		for (Loop loop : loops) {
+			for (int header : loop.getHeaders()) {
+				longer = Z3Addons.orConstraints(longer, ctx, pcIterations.get(loop).get(k).get(header));
+			}
+		}
+		solver.Push();
+		solver.Assert(longer);
+		Status status = solver.Check();
+		solver.Pop();
+		return status != Status.UNSATISFIABLE;
+	}
+
+	private static boolean isReached(Loop loop, Set<Integer> visited) {
+		for (int id : loop.getNodes()) {
+			if (visited.contains(id)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Encodes the next iteration of the loop and asserts it.
+	 */
+	private void addIteration(Loop loop) throws Z3Exception {
+		List<Map<Integer, BoolExpr>> pcMaps = pcIterations.get(loop);
+		List<Map<Integer, Expr>> expMaps = expIterations.get(loop);
+		int iteration = pcMaps.size();
+
+		// values from outside the loop are shared by all iterations
+		Map<Integer, BoolExpr> pcMap = new HashMap<Integer, BoolExpr>();
+		Map<Integer, Expr> expMap = new HashMap<Integer, Expr>();
+		for (PDGEdge edge : loop.getEntryEdges()) {
+			addOutsideVars(edge.getSource(), pcMap, expMap);
+		}
+		pcMaps.add(pcMap);
+		expMaps.add(expMap);
+
+		Set<BoolExpr> constraints = new LinkedHashSet<BoolExpr>();
+		for (int id : loop.getNodes()) {
+			AbstractPDGNode node = pdg.getNodeById(id);
+			if (loop.isHeader(id)) {
+				addHeaderConstraints(node, loop, iteration, constraints);
+			} else {
+				IntraProcedure.getNonFunctionConstraints(node, pdg, ctx, pcMap, expMap, constraints);
+			}
+		}
+		for (BoolExpr constraint : constraints)
+			solver.Assert(constraint);
+	}
+
+	private void addOutsideVars(AbstractPDGNode source, Map<Integer, BoolExpr> pcMap,
+								Map<Integer, Expr> expMap) throws Z3Exception {
+		int id = source.getNodeId();
+		pcMap.put(id, PDGConstraint.getOrAddVar(pdgNodeToZ3Var, id, ctx));
+		if (PDGHelper.isExprNode(source))
+			expMap.put(id, Expression.getOrAddAnyVar(expNodeToZ3Var, source, ctx));
+	}
+
+	/**
+	 * A header reads the edges entering the loop in the first iteration, and its back
+	 * edges, from the previous iteration, after that.
+	 */
+	private void addHeaderConstraints(AbstractPDGNode node, Loop loop, int iteration,
+										Set<BoolExpr> constraints) throws Z3Exception {
+		Map<Integer, BoolExpr> pcMap = pcIterations.get(loop).get(iteration);
+		Map<Integer, Expr> expMap = expIterations.get(loop).get(iteration);
+		Map<Integer, BoolExpr> sourcePCVars = new HashMap<Integer, BoolExpr>();
+		Map<Integer, Expr> sourceExpVars = new HashMap<Integer, Expr>();
+
+		Set<PDGEdge> edges = new HashSet<PDGEdge>();
+		for (PDGEdge edge : Loops.getEdges(pdg.incomingEdgesOf(node))) {
+			AbstractPDGNode source = edge.getSource();
+			boolean inside = loop.contains(source.getNodeId());
+			if (inside != (iteration > 0)) continue;
+			edges.add(edge);
+			if (inside) {
+				Map<Integer, BoolExpr> previousPCMap = pcIterations.get(loop).get(iteration - 1);
+				Map<Integer, Expr> previousExpMap = expIterations.get(loop).get(iteration - 1);
+				sourcePCVars.put(source.getNodeId(),
+								PDGConstraint.getOrAddVar(previousPCMap, source.getNodeId(), ctx));
+				if (PDGHelper.isExprNode(source))
+					sourceExpVars.put(source.getNodeId(),
+								Expression.getOrAddAnyVar(previousExpMap, source, ctx));
+			} else {
+				addOutsideVars(source, sourcePCVars, sourceExpVars);
+			}
+		}
+		if (edges.isEmpty()) return;
+
+		BoolExpr nodeVar = PDGConstraint.getOrAddVar(pcMap, node.getNodeId(), ctx);
+		BoolExpr pcConstraint = IntraProcedure.addIntraProceduralPCConstraints(null, ctx,
+										edges, pdg, ctx, sourcePCVars, sourceExpVars);
+		if (pcConstraint != null)
+			constraints.add(ctx.MkEq(nodeVar, pcConstraint));
+
+		if (!PDGHelper.isExprNode(node)) return;
+		Expr valueVar = Expression.getOrAddAnyVar(expMap, node, ctx);
+		BoolExpr valueConstraint = null;
+		for (Map.Entry<Integer, Expr> source : sourceExpVars.entrySet()) {
+			valueConstraint = Z3Addons.orConstraints(valueConstraint, ctx, Expression.getEq(node, 
+							valueVar, pdg.getNodeById(source.getKey()), source.getValue(), ctx));
+		}
+		if (valueConstraint != null)
+			constraints.add(ctx.MkImplies(nodeVar, valueConstraint));
+	}
+
+	/**
+	 * Ties the loop nodes the rest of the slice reads to iterations 0 to k - 1: a node
+	 * runs if it runs in some iteration, and has the value of the last one it ran in.
+	 */
+	private List<BoolExpr> getLinkConstraints(Loop loop, int k) throws Z3Exception {
+		List<BoolExpr> links = new ArrayList<BoolExpr>();
+		List<Map<Integer, BoolExpr>> pcMaps = pcIterations.get(loop);
+		List<Map<Integer, Expr>> expMaps = expIterations.get(loop);
+
+		for (int id : loop.getNodes()) {
+			AbstractPDGNode node = pdg.getNodeById(id);
+			BoolExpr pcVar = pdgNodeToZ3Var.get(id);
+			Expr expVar = expNodeToZ3Var.get(id);
+			if ((pcVar == null) && (expVar == null)) continue;
+
+			BoolExpr anyIteration = null;
+			BoolExpr noLaterIteration = ctx.MkTrue();
+			for (int j = k - 1; j >= 0; j--) {
+				BoolExpr iterationPC = PDGConstraint.getOrAddVar(pcMaps.get(j), id, ctx);
+				anyIteration = Z3Addons.orConstraints(anyIteration, ctx, iterationPC);
+				Expr iterationExp = expMaps.get(j).get(id);
+				if ((expVar != null) && (iterationExp != null)) {
+					BoolExpr last = ctx.MkAnd(new BoolExpr[] {iterationPC, noLaterIteration});
+					links.add(ctx.MkImplies(last, Expression.getEq(node, expVar, node, iterationExp, ctx)));
+				}
+				noLaterIteration = ctx.MkAnd(new BoolExpr[] {noLaterIteration, ctx.MkNot(iterationPC)});
+			}
+			if (pcVar != null) links.add(ctx.MkEq(pcVar, anyIteration));
+		}
+		return links;
+	}
+}
@@ -0,0 +1,261 @@
+package constraints;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import accrue.pdg.PDGEdge;
+import accrue.pdg.ProgramDependenceGraph;
+import accrue.pdg.node.AbstractPDGNode;
+
+/**
+ * The loops of a PDG: strongly connected components over the unlabeled, i.e. 
+ * intraprocedural, edges. A loop's headers are its phi and merge nodes with sources 
+ * both outside and inside the loop; the edges from inside the loop into a header are 
+ * its back edges. Cycles through call and return edges are recursion, see CallGraph.
+ * 
+ * A nested loop is part of its outer loop's component, and its phis only have sources 
+ * inside that component, so they are not headers. Components with such inner cycles 
+ * are not unrollable.
+ */
+public class Loops {
+	private static Map<ProgramDependenceGraph, Loops> results = 
+					new WeakHashMap<ProgramDependenceGraph, Loops>();
+
+	private final List<Loop> loops = new ArrayList<Loop>();
+	private final Map<Integer, Loop> nodeToLoop = new HashMap<Integer, Loop>();
+
+	public static class Loop {
+		private final int id;
+		private final Set<Integer> nodes = new LinkedHashSet<Integer>();
+		private final Set<Integer> headers = new LinkedHashSet<Integer>();
+		// edges from outside the loop into it
+		private final Set<PDGEdge> entryEdges = new LinkedHashSet<PDGEdge>();
+		private boolean unrollable = true;
+
+		Loop(int id) {
+			this.id = id;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		public Set<Integer> getNodes() {
+			return nodes;
+		}
+
+		public boolean contains(int nodeId) {
+			return nodes.contains(nodeId);
+		}
+
+		public Set<Integer> getHeaders() {
+			return headers;
+		}
+
+		public boolean isHeader(int nodeId) {
+			return headers.contains(nodeId);
+		}
+
+		public Set<PDGEdge> getEntryEdges() {
+			return entryEdges;
+		}
+
+		/**
+		 * False for loops that contain calls, have no header or contain a nested loop; 
+		 * those can only be encoded by traversing them once.
+		 */
+		public boolean isUnrollable() {
+			return unrollable;
+		}
+	}
+
+	public static synchronized Loops get(ProgramDependenceGraph pdg) {
+		Loops result = results.get(pdg);
+		if (result == null) {
+			result = new Loops(pdg);
+			results.put(pdg, result);
+		}
+		return result;
+	}
+
+	private Loops(ProgramDependenceGraph pdg) {
+		for (Set<Integer> component : getComponents(pdg, false)) {
+			if (component.size() < 2) {
+				// a single node is only a loop with a self edge
+				int id = component.iterator().next();
+				boolean selfEdge = false;
+				for (PDGEdge edge : getEdges(pdg.outgoingEdgesOf(pdg.getNodeById(id)))) {
+					if (edge.getTarget().getNodeId() == id) selfEdge = true;
+				}
+				if (!selfEdge) continue;
+			}
+			Loop loop = new Loop(loops.size());
+			loop.nodes.addAll(component);
+			loops.add(loop);
+			for (int id : component) nodeToLoop.put(id, loop);
+		}
+		for (Loop loop : loops) {
+			analyze(loop, pdg);
+		}
+		if (PDGConstraint.debugMode && !loops.isEmpty()) System.out.println("Loops: " + loops.size());
+	}
+
+	private void analyze(Loop loop, ProgramDependenceGraph pdg) {
+		for (int id : loop.nodes) {
+			AbstractPDGNode node = pdg.getNodeById(id);
+			if (PDGHelper.isReturnNode(node, pdg) || PDGHelper.isCallerNode(node, pdg) || 
+					PDGHelper.isEntryNode(node, pdg))
+				loop.unrollable = false;
+			
+			boolean outsideSource = false;
+			List<PDGEdge> insideEdges = new ArrayList<PDGEdge>();
+			for (PDGEdge edge : getEdges(pdg.incomingEdgesOf(node))) {
+				if (loop.contains(edge.getSource().getNodeId())) {
+					insideEdges.add(edge);
+				} else {
+					outsideSource = true;
+					loop.entryEdges.add(edge);
+				}
+			}
+			if (outsideSource && !insideEdges.isEmpty() && PDGHelper.isPhiOrMergeNode(node, pdg)) 
+				loop.headers.add(id);
+		}
+		if (loop.headers.isEmpty() || hasInnerCycle(loop, pdg)) loop.unrollable = false;
+	}
+
+	/**
+	 * Whether the loop still has a cycle without its back edges, i.e. a nested loop, 
+	 * by removing nodes without remaining predecessors until none are left.
+	 */
+	private static boolean hasInnerCycle(Loop loop, ProgramDependenceGraph pdg) {
+		Map<Integer, Integer> predecessors = new HashMap<Integer, Integer>();
+		for (int id : loop.nodes) {
+			int count = 0;
+			if (!loop.isHeader(id)) {
+				for (PDGEdge edge : getEdges(pdg.incomingEdgesOf(pdg.getNodeById(id)))) {
+					if (loop.contains(edge.getSource().getNodeId())) count++;
+				}
+			}
+			predecessors.put(id, count);
+		}
+		Deque<Integer> ready = new ArrayDeque<Integer>();
+		for (int id : loop.nodes) {
+			if (predecessors.get(id) == 0) ready.add(id);
+		}
+		int removed = 0;
+		while (!ready.isEmpty()) {
+			int id = ready.remove();
+			removed++;
+			for (PDGEdge edge : getEdges(pdg.outgoingEdgesOf(pdg.getNodeById(id)))) {
+				int target = edge.getTarget().getNodeId();
+				if (!loop.contains(target) || loop.isHeader(target)) continue;
+				int left = predecessors.get(target) - 1;
+				predecessors.put(target, left);
+				if (left == 0) ready.add(target);
+			}
+		}
+		return removed < loop.nodes.size();
+	}
+
+	/**
+	 * @return the loop containing the node, or null
+	 */
+	public Loop getLoop(int nodeId) {
+		return nodeToLoop.get(nodeId);
+	}
+
+	public List<Loop> getLoops() {
+		return loops;
+	}
+
+	/**
+	 * Unlabeled edges only.
+	 */
+	public static List<PDGEdge> getEdges(Collection<PDGEdge> edges) {
+		List<PDGEdge> unlabeled = new ArrayList<PDGEdge>();
+		for (PDGEdge edge : edges) {
+			if (edge.getEdgeLabel() == null) unlabeled.add(edge);
+		}
+		return unlabeled;
+	}
+
+	/**
+	 * Strongly connected components, by an iterative version of Tarjan's algorithm, 
+	 * since PDG paths are too long for recursion. Components come out in reverse 
+	 * topological order: every component after the ones its edges lead to.
+	 * 
+	 * @param labeled whether to follow call and return edges as well
+	 */
+	public static List<Set<Integer>> getComponents(ProgramDependenceGraph pdg, boolean labeled) {
+		List<Set<Integer>> components = new ArrayList<Set<Integer>>();
+		Map<Integer, Integer> index = new HashMap<Integer, Integer>();
+		Map<Integer, Integer> lowLink = new HashMap<Integer, Integer>();
+		Deque<Integer> stack = new ArrayDeque<Integer>();
+		Set<Integer> onStack = new LinkedHashSet<Integer>();
+		
+		for (AbstractPDGNode root : pdg.vertexSet()) {
+			if (index.containsKey(root.getNodeId())) continue;
+			
+			// call stack of nodes with the iterators over their remaining successors
+			Deque<Integer> callStack = new ArrayDeque<Integer>();
+			Deque<Iterator<PDGEdge>> iterators = new ArrayDeque<Iterator<PDGEdge>>();
+			visit(root, pdg, labeled, index, lowLink, stack, onStack, callStack, iterators);
+			
+			while (!callStack.isEmpty()) {
+				int id = callStack.peek();
+				Iterator<PDGEdge> successors = iterators.peek();
+				if (successors.hasNext()) {
+					AbstractPDGNode successor = successors.next().getTarget();
+					int successorId = successor.getNodeId();
+					if (!index.containsKey(successorId)) {
+						visit(successor, pdg, labeled, index, lowLink, stack, onStack, callStack, iterators);
+					} else if (onStack.contains(successorId)) {
+						lowLink.put(id, Math.min(lowLink.get(id), index.get(successorId)));
+					}
+					continue;
+				}
+				
+				callStack.pop();
+				iterators.pop();
+				if (!callStack.isEmpty()) {
+					int parent = callStack.peek();
+					lowLink.put(parent, Math.min(lowLink.get(parent), lowLink.get(id)));
+				}
+				if (lowLink.get(id).equals(index.get(id))) {
+					Set<Integer> component = new LinkedHashSet<Integer>();
+					int member;
+					do {
+						member = stack.pop();
+						onStack.remove(member);
+						component.add(member);
+					} while (member != id);
+					components.add(component);
+				}
+			}
+		}
+		return components;
+	}
+
+	private static void visit(AbstractPDGNode node, ProgramDependenceGraph pdg, boolean labeled,
+							Map<Integer, Integer> index, Map<Integer, Integer> lowLink, 
+							Deque<Integer> stack, Set<Integer> onStack,
+							Deque<Integer> callStack, Deque<Iterator<PDGEdge>> iterators) {
+		int id = node.getNodeId();
+		index.put(id, index.size());
+		lowLink.put(id, index.get(id));
+		stack.push(id);
+		onStack.add(id);
+		callStack.push(id);
+		Collection<PDGEdge> edges = pdg.outgoingEdgesOf(node);
+		iterators.push((labeled ? edges : getEdges(edges)).iterator());
+	}
+}
@@ -2,11 +2,12 @@ package constraints;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 
 import accrue.pdg.PDGEdge;
@@ -19,8 +20,20 @@ import com.microsoft.z3.Context;
 import com.microsoft.z3.Expr;
 import com.microsoft.z3.Z3Exception;
 
+import constraints.CallSiteTable.CallSite;
+import constraints.Loops.Loop;
+
 public class PDGConstraint {
 
+	public interface Checkpoint {
+		/**
+		 * Called after each node of a slice is encoded, with the constraints added for 
+		 * it. Returning false stops slicing.
+		 */
+		public boolean encoded(AbstractPDGNode node, ProgramDependenceGraph pdg, 
+								Set<BoolExpr> newConstraints) throws Z3Exception;
+	}
+
 	public static BoolExpr getOrAddVar(Map<Integer, BoolExpr> mapToZ3Var, int id, Context ctx) 
 				throws Z3Exception {
 		BoolExpr nodeVar = null;
@@ -38,46 +51,101 @@ public class PDGConstraint {
 									Context ctx, Map<Integer, BoolExpr> pdgNodeToZ3Var, 
 									Map<Integer, Expr> expNodeToZ3Var, 
 									Set<BoolExpr> constraints, 
-									Map<String, BoolExpr> funcToConstraint) throws Z3Exception {
-		if (PDGHelper.isReturnNode(node, pdg)) {
+									Set<BoolExpr> expConstraints,
+									Map<Integer, BoolExpr> funcToConstraint) throws Z3Exception {
+		if (PDGHelper.isReturnNode(node, pdg) && inlineCallees && CalleePolicy.isInlined(node, pdg)) {
+			InterProcedure.getInlinedConstraints(node, pdg, ctx, pdgNodeToZ3Var, expNodeToZ3Var, 
+															constraints, expConstraints, funcToConstraint);
+		} else if (PDGHelper.isReturnNode(node, pdg)) {
 			Set<AbstractPDGNode> nodes = PDGHelper.getFunctionCallNodes(node, pdg);
 			Set<BoolExpr> newConstraints = new LinkedHashSet<>();
 			for (AbstractPDGNode cur : nodes) {
 				InterProcedure.getFunctionConstraints(cur,  pdg, ctx, pdgNodeToZ3Var, expNodeToZ3Var, newConstraints);					
-				IntraProcedure.getNonFunctionConstraints(cur,  pdg, ctx, pdgNodeToZ3Var, expNodeToZ3Var, constraints);
+				IntraProcedure.getNonFunctionConstraints(cur,  pdg, ctx, pdgNodeToZ3Var, expNodeToZ3Var, 
+															constraints, expConstraints);
 			}
 			InterProcedure.updateFuncConstraint(node, pdg, newConstraints, funcToConstraint, ctx, pdgNodeToZ3Var);
-		} else if (PDGHelper.isEntryNode(node, pdg) && !PDGHelper.isMainEntry(node, pdg) &&
-						!funcToConstraint.containsKey(node.getProcedureName())) {
+		} else if (PDGHelper.isEntryNode(node, pdg) && 
+						!funcToConstraint.containsKey(PDGHelper.getProcedureId(node, pdg))) {
 			Set<AbstractPDGNode> nodes = PDGHelper.getEntryNodes(node, pdg);
 			InterProcedure.getEntryNodeConstraints(nodes, pdg, ctx, pdgNodeToZ3Var, expNodeToZ3Var, constraints);
 		}
 		else {
-			IntraProcedure.getNonFunctionConstraints(node,  pdg, ctx, pdgNodeToZ3Var, expNodeToZ3Var, constraints);
+			IntraProcedure.getNonFunctionConstraints(node,  pdg, ctx, pdgNodeToZ3Var, expNodeToZ3Var, 
+															constraints, expConstraints);
 		}	
 	}
 
 	public static void addIfNotVisited(AbstractPDGNode node, Set<Integer> visited,
-									Deque<Integer> workQueue) {
+									Queue<Integer> workQueue) {
 		int nodeId = node.getNodeId();
 		if (visited.add(nodeId)) {
 			workQueue.add(nodeId);
 		}
 	}
 
+	/**
+	 * Adds the predecessor unless it was visited or is past the policy's call depth. 
+	 * Crossing into another procedure, in either direction, is one level deeper.
+	 */
+	public static void addIfNotVisited(AbstractPDGNode node, AbstractPDGNode predecessor, 
+									ProgramDependenceGraph pdg, Set<Integer> visited,
+									Queue<Integer> workQueue, SlicePolicy policy, 
+									Map<Integer, Integer> depths) {
+		Integer depth = depths.get(node.getNodeId());
+		if (depth == null) depth = 0;
+		if (PDGHelper.getProcedureId(node, pdg) != PDGHelper.getProcedureId(predecessor, pdg)) 
+			depth++;
+		if (policy.isTooDeep(depth)) return;
+		
+		if (visited.add(predecessor.getNodeId())) {
+			depths.put(predecessor.getNodeId(), depth);
+			workQueue.add(predecessor.getNodeId());
+		}
+	}
+
 	public static void getPredecessors(AbstractPDGNode node, 
 								ProgramDependenceGraph pdg, Set<Integer> visited, 
-								Deque<Integer> workQueue, 
-								Map<String, BoolExpr> funcToConstraint) {
+								Queue<Integer> workQueue, 
+								Map<Integer, BoolExpr> funcToConstraint) {
+		getPredecessors(node, pdg, visited, workQueue, funcToConstraint, SlicePolicy.LEGACY, 
+								new HashMap<Integer, Integer>());
+	}
+
+	public static void getPredecessors(AbstractPDGNode node, 
+								ProgramDependenceGraph pdg, Set<Integer> visited, 
+								Queue<Integer> workQueue, 
+								Map<Integer, BoolExpr> funcToConstraint,
+								SlicePolicy policy, Map<Integer, Integer> depths) {
 		if (PDGConstraint.debugMode) System.out.println();
 	
-		if (PDGHelper.isMainEntry(node, pdg)) return;
+		if (policy.isBoundary(node, pdg)) return;
 		
 		// Only add entry node's parent if not in funcToConstraint
-		String functionName = node.getProcedureName();
-		if (PDGHelper.isEntryNode(node, pdg) && funcToConstraint.containsKey(functionName))
+		int functionId = PDGHelper.getProcedureId(node, pdg);
+		if (PDGHelper.isEntryNode(node, pdg) && funcToConstraint.containsKey(functionId))
 			return;
 		
+		// An inlined call was encoded along with the callee's body; continue before the
+		// call, and don't process the call's other nodes again
+		if (PDGHelper.isReturnNode(node, pdg) && inlineCallees && CalleePolicy.isInlined(node, pdg)) {
+			CallSite site = CallSiteTable.get(pdg).getCallerSite(node);
+			List<AbstractPDGNode> callerNodes = site.getCallerNodes();
+			for (AbstractPDGNode callerNode : callerNodes) {
+				visited.add(callerNode.getNodeId());
+			}
+			if (PDGConstraint.debugMode) System.out.println("Predecessors:");
+			for (AbstractPDGNode callerNode : callerNodes) {
+				for (PDGEdge edge : pdg.incomingEdgesOf(callerNode)) {
+					if (edge.getEdgeLabel() != null) continue;
+					if (PDGConstraint.debugMode) System.out.println(edge.getSource().getName());
+					addIfNotVisited(callerNode, edge.getSource(), pdg, visited, workQueue, policy, depths);
+				}
+			}
+			if (PDGConstraint.debugMode) System.out.println();
+			return;
+		}
+		
 		// If this node is part of a function call in the caller, all nodes involved with
 		// the call were processed at once. Don't add the other nodes within the caller
 		// involved with this function call. 
@@ -87,7 +155,7 @@ public class PDGConstraint {
 			if (PDGConstraint.debugMode) System.out.println("Function call nodes:");
 			for (AbstractPDGNode funcCallNode : nodes) {
 				if (PDGConstraint.debugMode) System.out.println(funcCallNode.getName());
-				if (PDGHelper.isMainEntry(funcCallNode, pdg)) continue;
+				if (policy.isBoundary(funcCallNode, pdg)) continue;
 				for (PDGEdge edge : pdg.incomingEdgesOf(funcCallNode)) {
 					predecessors.add(edge.getSource());
 				}
@@ -96,7 +164,7 @@ public class PDGConstraint {
 			if (PDGConstraint.debugMode) System.out.println("Predecessors:");
 			for (AbstractPDGNode predecessor : predecessors) {
 				if (PDGConstraint.debugMode) System.out.println(predecessor.getName());
-				addIfNotVisited(predecessor, visited, workQueue);
+				addIfNotVisited(node, predecessor, pdg, visited, workQueue, policy, depths);
 			}
 			if (PDGConstraint.debugMode) System.out.println();
 			return;
@@ -106,7 +174,7 @@ public class PDGConstraint {
 		if (PDGConstraint.debugMode) System.out.println("Predecessors:");
 		for (PDGEdge edge : pdg.incomingEdgesOf(node)) {
 			if (PDGConstraint.debugMode) System.out.println(edge.getSource().getName());
-			addIfNotVisited(edge.getSource(), visited, workQueue);
+			addIfNotVisited(node, edge.getSource(), pdg, visited, workQueue, policy, depths);
 		}
 		if (PDGConstraint.debugMode) System.out.println();
 	}
@@ -114,47 +182,230 @@ public class PDGConstraint {
 	public static Set<BoolExpr> getConstraints(int nodeID, ProgramDependenceGraph pdg, 
 														Context ctx) 
 														throws Z3Exception {
-		return getConstraints(nodeID, pdg, ctx, new HashSet<Integer>(), 
-												new HashMap<Integer, BoolExpr>(),
-												new HashMap<Integer, Expr>(),
-												new HashMap<String, BoolExpr>());
+		return getConstraints(nodeID, pdg, ctx, SlicePolicy.LEGACY);
+	}
+
+	public static Set<BoolExpr> getConstraints(int nodeID, ProgramDependenceGraph pdg, 
+														Context ctx, SlicePolicy policy) 
+														throws Z3Exception {
+		boolean useIntervals = useIntervalAnalysis && IntervalAnalysis.isApplicable();
+		if (useIntervals && IntervalAnalysis.get(pdg).isInfeasible(nodeID)) {
+			if (PDGConstraint.debugMode) System.out.println("Infeasible by interval analysis");
+			Set<BoolExpr> infeasible = new LinkedHashSet<>();
+			infeasible.add(ctx.MkFalse());
+			return infeasible;
+		}
+		
+		Map<Integer, BoolExpr> pdgNodeToZ3Var = new HashMap<Integer, BoolExpr>();
+		Map<Integer, Expr> expNodeToZ3Var = new HashMap<Integer, Expr>();
+		if (propagateConstants) 
+			ConstantPropagation.get(pdg).seed(nodeID, ctx, pdgNodeToZ3Var, expNodeToZ3Var);
+		Set<BoolExpr> constraints = getConstraints(nodeID, pdg, ctx, new HashSet<Integer>(), 
+												pdgNodeToZ3Var,
+												expNodeToZ3Var,
+												new HashMap<Integer, BoolExpr>(), 
+												null, policy);
+		if (useIntervals) 
+			constraints.addAll(IntervalAnalysis.get(pdg).getBoundHints(ctx, expNodeToZ3Var));
+		// learning is up to the caller, after solving (see LemmaCache.learn)
+		if (useLemmaCache) 
+			constraints.addAll(LemmaCache.getLemmas(pdg, ctx, pdgNodeToZ3Var, expNodeToZ3Var));
+		return constraints;
+	}
+
+	public static Set<BoolExpr> getConstraints(int nodeID, ProgramDependenceGraph pdg, 
+												Context ctx, Set<Integer> visited, 
+												Map<Integer, BoolExpr> pdgNodeToZ3Var, 
+												Map<Integer, Expr> expNodeToZ3Var,
+												Map<Integer, BoolExpr> funcToConstraint) 
+												throws Z3Exception {
+		return getConstraints(nodeID, pdg, ctx, visited, pdgNodeToZ3Var, expNodeToZ3Var, 
+												funcToConstraint, null);
 	}
 
+	/**
+	 * If expConstraints is not null, intraprocedural expression constraints are added 
+	 * to it instead of the returned set.
+	 */
 	public static Set<BoolExpr> getConstraints(int nodeID, ProgramDependenceGraph pdg, 
 												Context ctx, Set<Integer> visited, 
 												Map<Integer, BoolExpr> pdgNodeToZ3Var, 
 												Map<Integer, Expr> expNodeToZ3Var,
-												Map<String, BoolExpr> funcToConstraint) 
+												Map<Integer, BoolExpr> funcToConstraint,
+												Set<BoolExpr> expConstraints) 
+												throws Z3Exception {
+		return getConstraints(nodeID, pdg, ctx, visited, pdgNodeToZ3Var, expNodeToZ3Var, 
+												funcToConstraint, expConstraints, SlicePolicy.LEGACY);
+	}
+
+	public static Set<BoolExpr> getConstraints(int nodeID, ProgramDependenceGraph pdg, 
+												Context ctx, Set<Integer> visited, 
+												Map<Integer, BoolExpr> pdgNodeToZ3Var, 
+												Map<Integer, Expr> expNodeToZ3Var,
+												Map<Integer, BoolExpr> funcToConstraint,
+												Set<BoolExpr> expConstraints,
+												SlicePolicy policy) 
 												throws Z3Exception {
-		Deque<Integer> workQueue = new ArrayDeque<>();
 		Set<BoolExpr> constraints = new LinkedHashSet<>();
 		
 		BoolExpr base = Z3Addons.getFreshBoolVar(ctx);
-		workQueue.add(nodeID);
-		visited.add(nodeID);
 		pdgNodeToZ3Var.put(nodeID, base);
 		constraints.add(base);
 		
+		constraints.addAll(getSliceConstraints(nodeID, pdg, ctx, visited, pdgNodeToZ3Var, 
+										expNodeToZ3Var, funcToConstraint, expConstraints, policy));
+		constraints.addAll(funcToConstraint.values());
+		// deferred expression constraints also connect variables, so only reduce complete sets
+		if (useConeOfInfluence && (expConstraints == null)) 
+			constraints = ConeOfInfluence.reduce(constraints, base);
+		
+		if (PDGConstraint.debugMode) GraphConstraintInfo.printVars(pdgNodeToZ3Var, expNodeToZ3Var, pdg);
+		return constraints; 
+	}
+
+	/**
+	 * Constraints for the backward slice of the node, without asserting the node's pc 
+	 * variable and without the function summaries, which are only final once every 
+	 * slice sharing funcToConstraint has been built.
+	 */
+	public static Set<BoolExpr> getSliceConstraints(int nodeID, ProgramDependenceGraph pdg, 
+												Context ctx, Set<Integer> visited, 
+												Map<Integer, BoolExpr> pdgNodeToZ3Var, 
+												Map<Integer, Expr> expNodeToZ3Var,
+												Map<Integer, BoolExpr> funcToConstraint,
+												Set<BoolExpr> expConstraints) 
+												throws Z3Exception {
+		return getSliceConstraints(nodeID, pdg, ctx, visited, pdgNodeToZ3Var, expNodeToZ3Var, 
+												funcToConstraint, expConstraints, SlicePolicy.LEGACY);
+	}
+
+	public static Set<BoolExpr> getSliceConstraints(int nodeID, ProgramDependenceGraph pdg, 
+												Context ctx, Set<Integer> visited, 
+												Map<Integer, BoolExpr> pdgNodeToZ3Var, 
+												Map<Integer, Expr> expNodeToZ3Var,
+												Map<Integer, BoolExpr> funcToConstraint,
+												Set<BoolExpr> expConstraints,
+												SlicePolicy policy) 
+												throws Z3Exception {
+		return getSliceConstraints(nodeID, pdg, ctx, visited, pdgNodeToZ3Var, expNodeToZ3Var, 
+												funcToConstraint, expConstraints, policy, null);
+	}
+
+	/**
+	 * Passes the constraints of each node to the checkpoint as soon as they are 
+	 * encoded, and stops slicing when it returns false.
+	 */
+	public static Set<BoolExpr> getSliceConstraints(int nodeID, ProgramDependenceGraph pdg, 
+												Context ctx, Set<Integer> visited, 
+												Map<Integer, BoolExpr> pdgNodeToZ3Var, 
+												Map<Integer, Expr> expNodeToZ3Var,
+												Map<Integer, BoolExpr> funcToConstraint,
+												Set<BoolExpr> expConstraints,
+												SlicePolicy policy,
+												Checkpoint checkpoint) 
+												throws Z3Exception {
+		Queue<Integer> workQueue = useOrderedWorklist ? SliceOrder.get(pdg).newWorkQueue() : 
+												new ArrayDeque<Integer>();
+		Map<Integer, Integer> depths = new HashMap<Integer, Integer>();
+		int encoded = 0;
+		Set<BoolExpr> constraints = new LinkedHashSet<>();
+		if (expConstraints == null) expConstraints = constraints;
+		Set<Integer> contextSlice = useSummaryEdges ? SummaryEdges.get(pdg).getSlice(nodeID) : null;
+		Set<Integer> valueNodes = (pruneIrrelevantValues || skipIrrelevantCalls) ? 
+												Relevance.get(pdg).getValueNodes(nodeID) : null;
+		Set<Loop> summarizedLoops = new HashSet<Loop>();
+		
+		workQueue.add(nodeID);
+		visited.add(nodeID);
+		
 		while (!workQueue.isEmpty()) {
 			Integer nextID = workQueue.remove();
 			AbstractPDGNode node = pdg.getNodeById(nextID);
 			System.out.println("Node being processed: " + node.getName() + " " + node.getJavaType());
 			
-			if (PDGHelper.isMainEntry(node, pdg)) {
-				// prune pc summary in MAIN, we don't need to go further back.
-				// this is for debugging, shouldn't be needed later
+			if (policy.isExcluded(nextID) || 
+					((contextSlice != null) && !contextSlice.contains(nextID))) {
+				// outside the policy's nodes, or only reachable through another calling 
+				// context; left unconstrained, and unvisited for slices it does belong to
+				visited.remove(nextID);
 				continue;
 			}
+			if (policy.isBoundary(node, pdg)) {
+				// values entering an entry point are inputs, we don't need to go further back.
+				continue;
+			}
+			if (policy.isSkipped(node, pdg)) {
+				// encoded by LoopUnroller, along with the loop's predecessors
+				continue;
+			}
+			Loop loop = policy.getSummarizedLoop(node, pdg);
+			if ((loop != null) && summarizedLoops.contains(loop)) {
+				// queued before its loop was summarized from another of its nodes
+				continue;
+			}
+			if (policy.isOverBudget(encoded)) {
+				// whatever is left in the queue stays unconstrained
+				if (PDGConstraint.debugMode) System.out.println("Slice node budget reached");
+				break;
+			}
+			encoded++;
 			
-			getNodeConstraints(node, pdg, ctx, pdgNodeToZ3Var, expNodeToZ3Var, constraints, funcToConstraint);
-		
-			// add predecessors that we care about to the work queue
-			getPredecessors(node, pdg, visited, workQueue, funcToConstraint);
+			BoolExpr nodePCVar = pdgNodeToZ3Var.get(nextID);
+			if ((nodePCVar != null) && nodePCVar.IsFalse()) {
+				// constantly false branch (see ConstantPropagation), nothing to encode
+				continue;
+			}
+			
+			Set<BoolExpr> nodeConstraints = constraints;
+			Set<BoolExpr> nodeExpConstraints = expConstraints;
+			if (checkpoint != null) {
+				nodeConstraints = new LinkedHashSet<>();
+				if (expConstraints == constraints) nodeExpConstraints = nodeConstraints;
+			}
+			
+			if (loop != null) {
+				// the whole loop at once, continuing with what flows into it
+				summarizedLoops.add(loop);
+				LoopSummary.getConstraints(loop, pdg, ctx, pdgNodeToZ3Var, expNodeToZ3Var, 
+										nodeConstraints, nodeExpConstraints);
+				visited.addAll(loop.getNodes());
+				for (PDGEdge edge : loop.getEntryEdges()) {
+					addIfNotVisited(edge.getTarget(), edge.getSource(), pdg, visited, workQueue, 
+										policy, depths);
+				}
+			} else if (skipIrrelevantCalls && PDGHelper.isReturnNode(node, pdg) && 
+					BranchingProcedures.get(pdg).isIrrelevant(CallSiteTable.get(pdg).getCallerSite(node), valueNodes)) {
+				// the call can't affect the target; continue before it without the callee
+				CallSite site = CallSiteTable.get(pdg).getCallerSite(node);
+				InterProcedure.getPassThroughConstraints(site, ctx, pdgNodeToZ3Var, nodeConstraints);
+				for (AbstractPDGNode returnNode : site.getReturnNodes()) {
+					visited.add(returnNode.getNodeId());
+				}
+				addIfNotVisited(node, site.getCallerPC(), pdg, visited, workQueue, policy, depths);
+			} else {
+				if (pruneIrrelevantValues && !valueNodes.contains(nextID) && 
+						!PDGHelper.isReturnNode(node, pdg) && !PDGHelper.isEntryNode(node, pdg)) {
+					// the node's value can't affect any guard, only its pc is needed
+					IntraProcedure.getControlFlowConstraints(node, pdg, ctx, pdgNodeToZ3Var, 
+										expNodeToZ3Var, nodeConstraints);
+				} else {
+					getNodeConstraints(node, pdg, ctx, pdgNodeToZ3Var, expNodeToZ3Var, nodeConstraints, 
+										nodeExpConstraints, funcToConstraint);
+				}
+			
+				// add predecessors that we care about to the work queue
+				getPredecessors(node, pdg, visited, workQueue, funcToConstraint, policy, depths);
+			}
+			
+			if (checkpoint != null) {
+				constraints.addAll(nodeConstraints);
+				if (!checkpoint.encoded(node, pdg, nodeConstraints)) {
+					if (PDGConstraint.debugMode) System.out.println("Slicing stopped at checkpoint");
+					break;
+				}
+			}
 		}
-		constraints.addAll(funcToConstraint.values());
-		
-		if (PDGConstraint.debugMode) GraphConstraintInfo.printVars(pdgNodeToZ3Var, expNodeToZ3Var, pdg);
-		return constraints; 
+		return constraints;
 	}
 
 	public static Set<BoolExpr> getConstraintsPath(ArrayList<Integer> ids, 
@@ -165,7 +416,7 @@ public class PDGConstraint {
 		Set<Integer> visited = new HashSet<Integer>();
 		Map<Integer, BoolExpr> pdgNodeToZ3Var = new HashMap<Integer, BoolExpr>();
 		Map<Integer, Expr> expNodeToZ3Var = new HashMap<Integer, Expr>();
-		Map<String, BoolExpr> funcToConstraint = new HashMap<String, BoolExpr>();
+		Map<Integer, BoolExpr> funcToConstraint = new HashMap<Integer, BoolExpr>();
 	
 		for (Integer id : ids) {
 			Set<BoolExpr> newConstraints = getConstraints(id, pdg, ctx, visited, 
@@ -185,6 +436,39 @@ public class PDGConstraint {
 	}
 
 	static final boolean debugMode = true;
+	
+	// seed literals and dead branches from ConstantPropagation before slicing
+	public static boolean propagateConstants = false;
+	
+	// answer targets with infeasible guard intervals immediately, and add interval 
+	// bounds as hints to the rest; ignored for the bit-vector encoding
+	public static boolean useIntervalAnalysis = false;
+	
+	// drop constraints not connected to the target's pc variable
+	public static boolean useConeOfInfluence = false;
+	
+	// assert facts proven about procedures by earlier queries, and learn new ones
+	public static boolean useLemmaCache = false;
+	
+	// number of call contexts kept whole in the summary of a recursive procedure; 
+	// further calls from within the recursion only keep their pc equalities
+	public static int recursionBound = 3;
+	
+	// inline the callees CalleePolicy chooses instead of summarizing them
+	public static boolean inlineCallees = false;
+	
+	// encode slices in SliceOrder, guards first, instead of breadth-first
+	public static boolean useOrderedWorklist = false;
+	
+	// only encode nodes in the target's context-sensitive slice (see SummaryEdges)
+	public static boolean useSummaryEdges = false;
+	
+	// only encode the values of nodes that can affect a guard of the target (see 
+	// Relevance); slices sharing a visited set keep the first target's choice
+	public static boolean pruneIrrelevantValues = false;
+	
+	// pass through calls that can't affect the target's guards (see BranchingProcedures)
+	public static boolean skipIrrelevantCalls = false;
 
 
 }
@@ -13,6 +13,7 @@ import accrue.pdg.node.AbstractPDGNode;
 import accrue.pdg.node.PDGNodeType;
 import accrue.pdg.util.CallSiteEdgeLabel;
 import accrue.pdg.util.CallSiteEdgeLabel.SiteType;
+import constraints.CallSiteTable.CallSite;
 
 public class PDGHelper {
 
@@ -121,9 +122,14 @@ public class PDGHelper {
 		return labels;
 	}
 
+	public static int getProcedureId(AbstractPDGNode node, ProgramDependenceGraph pdg) {
+		return ProcedureIndex.get(pdg).getProcedureId(node);
+	}
+
 	public static AbstractPDGNode getCrossFunctionNode(AbstractPDGNode node, 
 									ProgramDependenceGraph pdg, boolean searchIncoming) {
-		String functionName = node.getProcedureName();
+		ProcedureIndex procedures = ProcedureIndex.get(pdg);
+		int functionId = procedures.getProcedureId(node);
 		List<AbstractPDGNode> neighbors = new ArrayList<AbstractPDGNode>();
 		
 		if (searchIncoming) {
@@ -139,18 +145,18 @@ public class PDGHelper {
 		}
 		
 		for (AbstractPDGNode neighbor : neighbors) {
-			if (!neighbor.getProcedureName().equals(functionName)) return neighbor;
+			if (procedures.getProcedureId(neighbor) != functionId) return neighbor;
 		}
 		return null;
 	}
 
-	public static String getFunctionNameForCall(AbstractPDGNode node, ProgramDependenceGraph pdg) {
+	public static int getFunctionIdForCall(AbstractPDGNode node, ProgramDependenceGraph pdg) {
 		AbstractPDGNode calleeNode = null;
 		if (isReturnNode(node, pdg))
 			calleeNode = getCrossFunctionNode(node, pdg, true);
 		else if (isCallerNode(node, pdg))
 			calleeNode = getCrossFunctionNode(node, pdg, false);
-		return calleeNode.getProcedureName();
+		return getProcedureId(calleeNode, pdg);
 	}
 
 	public static AbstractPDGNode getSourceNodeByType(Set<PDGEdge> edges, PDGEdgeType type) {
@@ -175,70 +181,39 @@ public class PDGHelper {
 		if (!isReturnNode(node, pdg)) return null;
 		
 		Set<AbstractPDGNode> nodes = new HashSet<AbstractPDGNode>();
-		String functionName = node.getProcedureName(); 
-				
-		// add return node and find PC node in caller
-		if (node.getNodeType() == PDGNodeType.EXIT_ASSIGNMENT) {
-			nodes.add(node);
-			for (PDGEdge incoming : pdg.incomingEdgesOf(node)) {
-				AbstractPDGNode sourceNode = incoming.getSource();
-				if (isReturnNode(sourceNode, pdg) &&
-					functionName.equals(sourceNode.getProcedureName())) {
-					node = sourceNode;
-					break;
-				}
-			}
-		}
-		
-		// add PC node from caller representing function return
 		nodes.add(node);
+		CallSite site = CallSiteTable.get(pdg).getCallerSite(node);
+		if (site == null) return nodes;
 		
-		// add PC node from caller representing function call
-		for (PDGEdge incoming : pdg.incomingEdgesOf(node)) {
-			AbstractPDGNode sourceNode = incoming.getSource();
-			if (isCallerNode(sourceNode, pdg) &&
-					functionName.equals(sourceNode.getProcedureName())) {
-				node = sourceNode;
-				break;
-			}
-		}
-		nodes.add(node);
+		// add PC node from caller representing function return
+		if ((node.getNodeType() == PDGNodeType.EXIT_ASSIGNMENT) && (site.getReturnPC() != null))
+			nodes.add(site.getReturnPC());
 		
-		// add formal argument assignment nodes in caller
-		for (PDGEdge outgoing : pdg.outgoingEdgesOf(node)) {
-			AbstractPDGNode nextNode = outgoing.getTarget();
-			if (isCallerNode(nextNode, pdg) &&
-					functionName.equals(nextNode.getProcedureName()))
-				nodes.add(nextNode);
-		}
+		// add PC node from caller representing function call, and formal argument 
+		// assignment nodes in caller
+		if (site.getCallerPC() != null) nodes.add(site.getCallerPC());
+		nodes.addAll(site.getActuals());
 		
 		return nodes;
 	}
 
 	public static AbstractPDGNode getCallerPCNode(AbstractPDGNode node, ProgramDependenceGraph pdg) {
 		if (!isEntryNode(node, pdg)) return null;
-		if (node.getNodeType() == PDGNodeType.ENTRY_PC_SUMMARY) {
-			return getCrossFunctionNode(node, pdg, true);
-		}
-		assert(node.getNodeType() == PDGNodeType.FORMAL_SUMMARY);
-		AbstractPDGNode formalCallerNode = getCrossFunctionNode(node, pdg, true);
-		return getSourceNodeByType(pdg.incomingEdgesOf(formalCallerNode), PDGEdgeType.IMPLICIT);
+		List<CallSite> sites = CallSiteTable.get(pdg).getCalleeSites(node);
+		if (sites.isEmpty()) return null;
+		return sites.get(0).getCallerPC();
 	}
 
 	public static Set<AbstractPDGNode> getEntryNodes(AbstractPDGNode node, ProgramDependenceGraph pdg) {
-		Set<AbstractPDGNode> nodes = new HashSet<AbstractPDGNode>();
-		AbstractPDGNode callerPC = getCallerPCNode(node, pdg);
-		if (callerPC == null) return null;
-		// add entry PC node
-		nodes.add(getCrossFunctionNode(callerPC, pdg, false));
+		if (!isEntryNode(node, pdg)) return null;
+		List<CallSite> sites = CallSiteTable.get(pdg).getCalleeSites(node);
+		if (sites.isEmpty()) return null;
 		
-		// add formal argument node
-		for (PDGEdge edge : pdg.outgoingEdgesOf(callerPC)) {
-			AbstractPDGNode formalCallerNode = edge.getTarget();
-			if (isCallerNode(formalCallerNode, pdg)) {
-				nodes.add(getCrossFunctionNode(formalCallerNode, pdg, false));
-			}
-		}
+		// entry PC node and formal argument nodes, which are the same for every site
+		Set<AbstractPDGNode> nodes = new HashSet<AbstractPDGNode>();
+		CallSite site = sites.get(0);
+		if (site.getEntryPC() != null) nodes.add(site.getEntryPC());
+		nodes.addAll(site.getFormals());
 		
 		return nodes;
 	}
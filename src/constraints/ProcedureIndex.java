@@ -0,0 +1,122 @@
+package constraints;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+import accrue.pdg.ProgramDependenceGraph;
+import accrue.pdg.node.AbstractPDGNode;
+
+/**
+ * Interns the procedures of a PDG to small ints, numbered in order of their lowest 
+ * node ID, and records for each its node ID ranges and entry nodes. 
+ * Procedure-scoped maps are keyed by these ids rather than by procedure name.
+ */
+public class ProcedureIndex {
+	private static Map<ProgramDependenceGraph, ProcedureIndex> results = 
+					new WeakHashMap<ProgramDependenceGraph, ProcedureIndex>();
+
+	private final Map<String, Integer> nameToId = new HashMap<String, Integer>();
+	private final Map<Integer, Integer> nodeToProcedure = new HashMap<Integer, Integer>();
+	private final List<Procedure> procedures = new ArrayList<Procedure>();
+
+	public static class Procedure {
+		private final int id;
+		private final String name;
+		private final List<int[]> nodeRanges = new ArrayList<int[]>();
+		private final List<AbstractPDGNode> entryNodes = new ArrayList<AbstractPDGNode>();
+		private int size = 0;
+
+		Procedure(int id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return inclusive [first, last] runs of consecutive node IDs, in order
+		 */
+		public List<int[]> getNodeRanges() {
+			return nodeRanges;
+		}
+
+		public List<AbstractPDGNode> getEntryNodes() {
+			return entryNodes;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		private void addNode(int nodeId) {
+			size++;
+			if (!nodeRanges.isEmpty()) {
+				int[] last = nodeRanges.get(nodeRanges.size() - 1);
+				if (last[1] + 1 == nodeId) {
+					last[1] = nodeId;
+					return;
+				}
+			}
+			nodeRanges.add(new int[] {nodeId, nodeId});
+		}
+	}
+
+	public static synchronized ProcedureIndex get(ProgramDependenceGraph pdg) {
+		ProcedureIndex result = results.get(pdg);
+		if (result == null) {
+			result = new ProcedureIndex(pdg);
+			results.put(pdg, result);
+		}
+		return result;
+	}
+
+	private ProcedureIndex(ProgramDependenceGraph pdg) {
+		Map<Integer, AbstractPDGNode> nodes = new TreeMap<Integer, AbstractPDGNode>();
+		for (AbstractPDGNode node : pdg.vertexSet()) {
+			nodes.put(node.getNodeId(), node);
+		}
+		for (AbstractPDGNode node : nodes.values()) {
+			Integer id = nameToId.get(node.getProcedureName());
+			if (id == null) {
+				id = procedures.size();
+				nameToId.put(node.getProcedureName(), id);
+				procedures.add(new Procedure(id, node.getProcedureName()));
+			}
+			Procedure procedure = procedures.get(id);
+			nodeToProcedure.put(node.getNodeId(), id);
+			procedure.addNode(node.getNodeId());
+			if (PDGHelper.isEntryNode(node, pdg)) procedure.entryNodes.add(node);
+		}
+		if (PDGConstraint.debugMode) System.out.println("Procedures: " + procedures.size());
+	}
+
+	public int getProcedureId(AbstractPDGNode node) {
+		return nodeToProcedure.get(node.getNodeId());
+	}
+
+	public Procedure getProcedure(int id) {
+		return procedures.get(id);
+	}
+
+	public String getName(int id) {
+		return procedures.get(id).getName();
+	}
+
+	public List<Procedure> getProcedures() {
+		return procedures;
+	}
+
+	public int size() {
+		return procedures.size();
+	}
+}
@@ -0,0 +1,90 @@
+package constraints;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import accrue.pdg.PDGEdge;
+import accrue.pdg.PDGEdgeType;
+import accrue.pdg.ProgramDependenceGraph;
+import accrue.pdg.node.AbstractPDGNode;
+
+/**
+ * Which expression values can matter for reaching a target. Reachability only 
+ * depends on pc variables, and a pc variable only depends on values through the 
+ * conditions of TRUE and FALSE edges, so the values that matter are those flowing 
+ * into a condition the target's pc depends on. Every other node of the slice only 
+ * needs its pc encoded; its value can stay unconstrained.
+ */
+public class Relevance {
+	private static Map<ProgramDependenceGraph, Relevance> results = 
+					new WeakHashMap<ProgramDependenceGraph, Relevance>();
+
+	private final ProgramDependenceGraph pdg;
+	// target -> nodes whose values matter
+	private final Map<Integer, Set<Integer>> valueNodes = new HashMap<Integer, Set<Integer>>();
+
+	public static synchronized Relevance get(ProgramDependenceGraph pdg) {
+		Relevance result = results.get(pdg);
+		if (result == null) {
+			result = new Relevance(pdg);
+			results.put(pdg, result);
+		}
+		return result;
+	}
+
+	private Relevance(ProgramDependenceGraph pdg) {
+		this.pdg = pdg;
+	}
+
+	/**
+	 * A target that is an expression node counts as relevant itself, along with 
+	 * whatever flows into it: slices are also started for values, such as an inlined 
+	 * callee's exit or a loop's entry source, and those need their root's value.
+	 * 
+	 * @return ids of the nodes whose values can affect whether the target executes
+	 */
+	public synchronized Set<Integer> getValueNodes(int targetId) {
+		Set<Integer> result = valueNodes.get(targetId);
+		if (result == null) {
+			result = computeValueNodes(targetId);
+			valueNodes.put(targetId, result);
+			if (PDGConstraint.debugMode) System.out.println("Relevant values: " + result.size());
+		}
+		return result;
+	}
+
+	private Set<Integer> computeValueNodes(int targetId) {
+		Set<Integer> pcNodes = new HashSet<Integer>();
+		Set<Integer> values = new HashSet<Integer>();
+		// pc nodes are queued as is, value nodes negated and offset by one
+		Deque<Integer> workQueue = new ArrayDeque<Integer>();
+		pcNodes.add(targetId);
+		workQueue.add(targetId);
+		if (PDGHelper.isExprNode(pdg.getNodeById(targetId)) && values.add(targetId))
+			workQueue.add(-targetId - 1);
+		
+		while (!workQueue.isEmpty()) {
+			int next = workQueue.remove();
+			boolean value = next < 0;
+			AbstractPDGNode node = pdg.getNodeById(value ? -next - 1 : next);
+			if (value && pcNodes.add(node.getNodeId())) workQueue.add(node.getNodeId());
+			
+			for (PDGEdge edge : pdg.incomingEdgesOf(node)) {
+				AbstractPDGNode source = edge.getSource();
+				int sourceId = source.getNodeId();
+				boolean condition = (edge.getType() == PDGEdgeType.TRUE) || 
+										(edge.getType() == PDGEdgeType.FALSE);
+				// a node's pc is defined by the pcs of all its sources
+				if (!value && pcNodes.add(sourceId)) workQueue.add(sourceId);
+				if ((condition || value) && PDGHelper.isExprNode(source) && values.add(sourceId)) 
+					workQueue.add(-sourceId - 1);
+			}
+		}
+		return values;
+	}
+}
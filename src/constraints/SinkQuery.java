@@ -0,0 +1,115 @@
+package constraints;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import accrue.pdg.ProgramDependenceGraph;
+
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Expr;
+import com.microsoft.z3.Model;
+import com.microsoft.z3.Solver;
+import com.microsoft.z3.Status;
+import com.microsoft.z3.Z3Exception;
+
+/**
+ * "Can any of these nodes execute?" queries. The slices of all sinks are built once 
+ * with shared variables and summaries, and the disjunction of the sinks' pc variables 
+ * is asserted, so one solver call answers for the whole set.
+ */
+public class SinkQuery {
+
+	/**
+	 * Constraints for the union of the sinks' slices, without any assertion about the 
+	 * sinks. The sinks' pc variables are in pdgNodeToZ3Var afterwards.
+	 */
+	public static Set<BoolExpr> getConstraints(List<Integer> sinkIDs, ProgramDependenceGraph pdg, 
+										Context ctx, Map<Integer, BoolExpr> pdgNodeToZ3Var,
+										Map<Integer, Expr> expNodeToZ3Var) throws Z3Exception {
+		Set<BoolExpr> constraints = new LinkedHashSet<BoolExpr>();
+		Set<Integer> visited = new HashSet<Integer>();
+		Map<Integer, BoolExpr> funcToConstraint = new HashMap<Integer, BoolExpr>();
+		
+		for (int sinkID : sinkIDs) {
+			// a sink may already be in another sink's slice; keep its variable
+			PDGConstraint.getOrAddVar(pdgNodeToZ3Var, sinkID, ctx);
+			constraints.addAll(PDGConstraint.getSliceConstraints(sinkID, pdg, ctx, visited, 
+									pdgNodeToZ3Var, expNodeToZ3Var, funcToConstraint, null));
+		}
+		constraints.addAll(funcToConstraint.values());
+		return constraints;
+	}
+
+	/**
+	 * @param sinkIDs
+	 * @param pdg
+	 * @param ctx
+	 * @return a sink the model shows executing, or null if none of the sinks can execute
+	 * @throws Z3Exception
+	 */
+	public static Integer findReachableSink(List<Integer> sinkIDs, ProgramDependenceGraph pdg, 
+													Context ctx) throws Z3Exception {
+		List<Integer> found = findReachableSinks(sinkIDs, pdg, ctx, false);
+		return found.isEmpty() ? null : found.get(0);
+	}
+
+	/**
+	 * Repeatedly asks whether any sink not yet found can execute, removing the sinks 
+	 * each model witnesses from the disjunction, until none remain. All checks run on 
+	 * one solver holding the shared slice.
+	 * 
+	 * @param sinkIDs
+	 * @param pdg
+	 * @param ctx
+	 * @param all if false, stop after the first model
+	 * @return the sinks that can execute, in the order they were found
+	 * @throws Z3Exception
+	 */
+	public static List<Integer> findReachableSinks(List<Integer> sinkIDs, ProgramDependenceGraph pdg, 
+										Context ctx, boolean all) throws Z3Exception {
+		Map<Integer, BoolExpr> pdgNodeToZ3Var = new HashMap<Integer, BoolExpr>();
+		Map<Integer, Expr> expNodeToZ3Var = new HashMap<Integer, Expr>();
+		Set<BoolExpr> constraints = getConstraints(sinkIDs, pdg, ctx, pdgNodeToZ3Var, expNodeToZ3Var);
+		
+		Map<Integer, BoolExpr> remaining = new LinkedHashMap<Integer, BoolExpr>();
+		for (int sinkID : sinkIDs) {
+			remaining.put(sinkID, pdgNodeToZ3Var.get(sinkID));
+		}
+		
+		Solver s = ConstraintCheck.getSolver(ctx, constraints);
+		for (BoolExpr constraint : constraints)
+			s.Assert(constraint);
+		
+		List<Integer> found = new ArrayList<Integer>();
+		while (!remaining.isEmpty()) {
+			s.Push();
+			s.Assert(ctx.MkOr(remaining.values().toArray(new BoolExpr[remaining.size()])));
+			Status status = s.Check();
+			if (status != Status.SATISFIABLE) {
+				s.Pop();
+				break;
+			}
+			Model model = s.Model();
+			List<Integer> witnessed = new ArrayList<Integer>();
+			for (Map.Entry<Integer, BoolExpr> sink : remaining.entrySet()) {
+				if (model.Eval(sink.getValue(), true).IsTrue()) witnessed.add(sink.getKey());
+			}
+			s.Pop();
+			
+			for (int sinkID : witnessed) {
+				if (PDGConstraint.debugMode) System.out.println("Sink can execute: " + pdg.getNodeById(sinkID).getName());
+				remaining.remove(sinkID);
+				found.add(sinkID);
+			}
+			if (!all) break;
+		}
+		return found;
+	}
+}
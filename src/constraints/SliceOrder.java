@@ -0,0 +1,85 @@
+package constraints;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import accrue.pdg.PDGEdge;
+import accrue.pdg.PDGEdgeType;
+import accrue.pdg.ProgramDependenceGraph;
+import accrue.pdg.node.AbstractPDGNode;
+
+/**
+ * The order in which the slice worklist encodes nodes, in place of breadth-first 
+ * order. Guards, i.e. pc nodes and the conditions of TRUE and FALSE edges, come 
+ * first, so a node's conditions are encoded before the data that depends on them. 
+ * Within each group nodes go by their component's reverse topological rank in the 
+ * SCC condensation of the PDG, nearest the target first, and then by node id, so the 
+ * order is the same on every run.
+ */
+public class SliceOrder implements Comparator<Integer> {
+	private static Map<ProgramDependenceGraph, SliceOrder> results = 
+					new WeakHashMap<ProgramDependenceGraph, SliceOrder>();
+
+	private final Map<Integer, Integer> ranks = new HashMap<Integer, Integer>();
+	private final Map<Integer, Boolean> guards = new HashMap<Integer, Boolean>();
+
+	public static synchronized SliceOrder get(ProgramDependenceGraph pdg) {
+		SliceOrder result = results.get(pdg);
+		if (result == null) {
+			result = new SliceOrder(pdg);
+			results.put(pdg, result);
+		}
+		return result;
+	}
+
+	private SliceOrder(ProgramDependenceGraph pdg) {
+		List<Set<Integer>> components = Loops.getComponents(pdg, true);
+		for (int rank = 0; rank < components.size(); rank++) {
+			for (int id : components.get(rank)) {
+				ranks.put(id, rank);
+			}
+		}
+		for (AbstractPDGNode node : pdg.vertexSet()) {
+			guards.put(node.getNodeId(), isGuard(node, pdg));
+		}
+	}
+
+	public static boolean isGuard(AbstractPDGNode node, ProgramDependenceGraph pdg) {
+		if (PDGHelper.isPCNode(node)) return true;
+		for (PDGEdge edge : pdg.outgoingEdgesOf(node)) {
+			if ((edge.getType() == PDGEdgeType.TRUE) || (edge.getType() == PDGEdgeType.FALSE))
+				return true;
+		}
+		return false;
+	}
+
+	public boolean isGuard(int nodeId) {
+		Boolean guard = guards.get(nodeId);
+		return (guard != null) && guard;
+	}
+
+	public int getRank(int nodeId) {
+		Integer rank = ranks.get(nodeId);
+		return (rank == null) ? Integer.MAX_VALUE : rank;
+	}
+
+	@Override
+	public int compare(Integer first, Integer second) {
+		boolean firstGuard = isGuard(first);
+		if (firstGuard != isGuard(second)) return firstGuard ? -1 : 1;
+		int firstRank = getRank(first);
+		int secondRank = getRank(second);
+		if (firstRank != secondRank) return (firstRank < secondRank) ? -1 : 1;
+		return first.compareTo(second);
+	}
+
+	public Queue<Integer> newWorkQueue() {
+		return new PriorityQueue<Integer>(11, this);
+	}
+}
@@ -0,0 +1,129 @@
+package constraints;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import accrue.pdg.ProgramDependenceGraph;
+import accrue.pdg.node.AbstractPDGNode;
+
+/**
+ * Where a backward slice stops. Slicing stops at the entry nodes of entry-point 
+ * procedures, at nodes more than maxCallDepth call boundaries away from the target, 
+ * and once maxNodes nodes have been encoded. Nodes past the boundary are not encoded, 
+ * so their values are unconstrained inputs to the slice.
+ * 
+ * The loop mode says how loops (see Loops) are encoded: NONE traverses them once, as 
+ * slicing always did, UNROLL leaves unrollable loops out of the slice so 
+ * LoopUnroller can encode their iterations separately, and SUMMARIZE encodes each 
+ * of them once with LoopSummary.
+ */
+public class SlicePolicy {
+	public enum LoopMode {NONE, UNROLL, SUMMARIZE}
+	
+	// stop at entries of procedures whose name contains "main", as slicing always did
+	public static final SlicePolicy LEGACY = new SlicePolicy(null, -1, -1);
+
+	private final Set<String> entryPoints;
+	private final int maxCallDepth;
+	private final int maxNodes;
+	private final LoopMode loopMode;
+	// ids of the only nodes that may be encoded, or null for all of them
+	private final Set<Integer> nodes;
+
+	/**
+	 * @param entryPoints names of the entry-point procedures, or null for any procedure 
+	 * whose name contains "main"
+	 * @param maxCallDepth call boundaries crossed, in either direction, or -1 for no limit
+	 * @param maxNodes nodes encoded per slice, or -1 for no limit
+	 */
+	public SlicePolicy(Set<String> entryPoints, int maxCallDepth, int maxNodes) {
+		this(entryPoints, maxCallDepth, maxNodes, LoopMode.NONE);
+	}
+
+	public SlicePolicy(Set<String> entryPoints, int maxCallDepth, int maxNodes, LoopMode loopMode) {
+		this(entryPoints, maxCallDepth, maxNodes, loopMode, null);
+	}
+
+	private SlicePolicy(Set<String> entryPoints, int maxCallDepth, int maxNodes, LoopMode loopMode,
+						Set<Integer> nodes) {
+		this.entryPoints = (entryPoints == null) ? null : 
+								Collections.unmodifiableSet(new HashSet<String>(entryPoints));
+		this.maxCallDepth = maxCallDepth;
+		this.maxNodes = maxNodes;
+		this.loopMode = loopMode;
+		this.nodes = nodes;
+	}
+
+	/**
+	 * The same policy, but only encoding the given nodes, e.g. a Chop. The others are 
+	 * left unconstrained.
+	 */
+	public SlicePolicy restrictTo(Set<Integer> nodeIds) {
+		return new SlicePolicy(entryPoints, maxCallDepth, maxNodes, loopMode, 
+								Collections.unmodifiableSet(new HashSet<Integer>(nodeIds)));
+	}
+
+	public Set<String> getEntryPoints() {
+		return entryPoints;
+	}
+
+	public int getMaxCallDepth() {
+		return maxCallDepth;
+	}
+
+	public int getMaxNodes() {
+		return maxNodes;
+	}
+
+	public LoopMode getLoopMode() {
+		return loopMode;
+	}
+
+	public Set<Integer> getNodes() {
+		return nodes;
+	}
+
+	public boolean isExcluded(int nodeId) {
+		return (nodes != null) && !nodes.contains(nodeId);
+	}
+
+	/**
+	 * Nodes of unrollable loops, when loops are unrolled outside of the slice.
+	 */
+	public boolean isSkipped(AbstractPDGNode node, ProgramDependenceGraph pdg) {
+		if (loopMode != LoopMode.UNROLL) return false;
+		Loops.Loop loop = Loops.get(pdg).getLoop(node.getNodeId());
+		return (loop != null) && loop.isUnrollable();
+	}
+
+	/**
+	 * @return the loop to encode with LoopSummary in place of the node, or null
+	 */
+	public Loops.Loop getSummarizedLoop(AbstractPDGNode node, ProgramDependenceGraph pdg) {
+		if (loopMode != LoopMode.SUMMARIZE) return null;
+		Loops.Loop loop = Loops.get(pdg).getLoop(node.getNodeId());
+		return ((loop != null) && loop.isUnrollable()) ? loop : null;
+	}
+
+	/**
+	 * Entry nodes of entry-point procedures, and of procedures that are never called.
+	 */
+	public boolean isBoundary(AbstractPDGNode node, ProgramDependenceGraph pdg) {
+		if (!PDGHelper.isEntryNode(node, pdg)) return false;
+		if (entryPoints == null) {
+			if (PDGHelper.isMainEntry(node, pdg)) return true;
+		} else if (entryPoints.contains(node.getProcedureName())) {
+			return true;
+		}
+		return CallSiteTable.get(pdg).getCalleeSites(node).isEmpty();
+	}
+
+	public boolean isTooDeep(int callDepth) {
+		return (maxCallDepth >= 0) && (callDepth > maxCallDepth);
+	}
+
+	public boolean isOverBudget(int nodesEncoded) {
+		return (maxNodes >= 0) && (nodesEncoded >= maxNodes);
+	}
+}
@@ -0,0 +1,97 @@
+package constraints;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.microsoft.z3.BitVecNum;
+import com.microsoft.z3.BitVecSort;
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.Expr;
+import com.microsoft.z3.FuncDecl;
+import com.microsoft.z3.Z3Exception;
+
+/**
+ * Lowers constraint sets to SMT-LIB2 scripts so they can be solved outside of the JVM.
+ * Each script is wrapped in its own push/pop scope, so a solver process can run many
+ * scripts back to back without declarations leaking between them.
+ */
+public class SmtLib2 {
+
+	public static String getScript(Set<BoolExpr> assertions, String marker) throws Z3Exception {
+		Map<Integer, String> termCache = new HashMap<Integer, String>();
+		Map<String, String> declarations = new LinkedHashMap<String, String>();
+
+		StringBuilder asserts = new StringBuilder();
+		for (BoolExpr assertion : assertions) {
+			asserts.append("(assert ");
+			asserts.append(getTerm(assertion, termCache, declarations));
+			asserts.append(")\n");
+		}
+
+		StringBuilder script = new StringBuilder();
+		script.append("(push 1)\n");
+		for (Map.Entry<String, String> declaration : declarations.entrySet()) {
+			script.append("(declare-const ").append(declaration.getKey()).append(" ");
+			script.append(declaration.getValue()).append(")\n");
+		}
+		script.append(asserts);
+		script.append("(check-sat)\n");
+		script.append("(pop 1)\n");
+		script.append("(echo \"").append(marker).append("\")\n");
+		return script.toString();
+	}
+
+	public static String getSymbol(String name) {
+		return "|" + name.replace("|", "_") + "|";
+	}
+
+	public static String getTerm(Expr exp, Map<Integer, String> termCache,
+									Map<String, String> declarations) throws Z3Exception {
+		int id = exp.Id();
+		String term = termCache.get(id);
+		if (term != null) return term;
+
+		if (exp.IsTrue()) {
+			term = "true";
+		} else if (exp.IsFalse()) {
+			term = "false";
+		} else if (exp.IsIntNum()) {
+			String value = exp.toString();
+			term = value.startsWith("-") ? "(- " + value.substring(1) + ")" : value;
+		} else if (exp.IsBVNumeral()) {
+			int width = ((BitVecSort) exp.Sort()).Size();
+			term = "(_ bv" + ((BitVecNum) exp).BigInteger() + " " + width + ")";
+		} else if (exp.IsConst()) {
+			term = getSymbol(exp.FuncDecl().Name().toString());
+			declarations.put(term, exp.Sort().toString());
+		} else {
+			StringBuilder app = new StringBuilder("(");
+			app.append(getOperator(exp));
+			for (Expr arg : exp.Args()) {
+				app.append(" ").append(getTerm(arg, termCache, declarations));
+			}
+			app.append(")");
+			term = app.toString();
+		}
+
+		termCache.put(id, term);
+		return term;
+	}
+
+	public static String getOperator(Expr exp) throws Z3Exception {
+		// older Z3 versions name boolean equality "iff"
+		if (exp.IsIff()) return "=";
+		
+		// indexed operators such as sign_extend and extract
+		FuncDecl decl = exp.FuncDecl();
+		String name = decl.Name().toString();
+		if (decl.NumParameters() == 0) return name;
+		StringBuilder indexed = new StringBuilder("(_ ").append(name);
+		for (FuncDecl.Parameter parameter : decl.Parameters()) {
+			indexed.append(" ").append(parameter.Int());
+		}
+		return indexed.append(")").toString();
+	}
+}
@@ -0,0 +1,284 @@
+package constraints;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.Status;
+import com.microsoft.z3.Z3Exception;
+
+/**
+ * A pool of solver processes that check constraint sets lowered to SMT-LIB2, as an
+ * alternative to solving in-process through JNI. Queries are pipelined: they are
+ * queued to a worker as soon as they are submitted and answered in order. Each worker
+ * has a writer thread feeding the process, so a full pipe never blocks the thread
+ * reading its answers. A worker that dies (crash, memory limit) is restarted and its unanswered queries are resent.
+ *
+ * Lowering happens on the submitting thread, since a Z3 Context is not thread safe;
+ * only the solving is spread across processes.
+ */
+public class SolverWorkerPool {
+	private final List<String> command;
+	private final List<SolverWorker> workers = new ArrayList<SolverWorker>();
+	private final int maxRetries;
+	private long markerCount = 0;
+	// written last to a process; also ends its writer thread
+	private static final String EXIT = "(exit)\n";
+
+	public SolverWorkerPool(int numWorkers, int memoryLimitMB) throws IOException {
+		this(Arrays.asList("z3", "-in", "-smt2", "-memory:" + memoryLimitMB), numWorkers, 2);
+	}
+
+	public SolverWorkerPool(List<String> command, int numWorkers, int maxRetries) throws IOException {
+		this.command = new ArrayList<String>(command);
+		this.maxRetries = maxRetries;
+		for (int i = 0; i < numWorkers; i++) {
+			workers.add(new SolverWorker(i));
+		}
+	}
+
+	public Future<Status> submit(Set<BoolExpr> assertions) throws Z3Exception {
+		String marker;
+		synchronized (this) {
+			marker = "done-" + markerCount++;
+		}
+		PendingQuery query = new PendingQuery(SmtLib2.getScript(assertions, marker), marker);
+		getLeastLoadedWorker().send(query);
+		return query;
+	}
+
+	public Status check(Set<BoolExpr> assertions) throws Z3Exception {
+		try {
+			return submit(assertions).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return Status.UNKNOWN;
+		} catch (ExecutionException e) {
+			return Status.UNKNOWN;
+		}
+	}
+
+	public void shutdown() {
+		for (SolverWorker worker : workers) {
+			worker.shutdown();
+		}
+	}
+
+	private SolverWorker getLeastLoadedWorker() {
+		SolverWorker best = null;
+		int bestLoad = Integer.MAX_VALUE;
+		for (SolverWorker worker : workers) {
+			int load = worker.getLoad();
+			if (load < bestLoad) {
+				best = worker;
+				bestLoad = load;
+			}
+		}
+		return best;
+	}
+
+	private static Status parseStatus(String line) {
+		switch (line) {
+			case "sat":
+				return Status.SATISFIABLE;
+			case "unsat":
+				return Status.UNSATISFIABLE;
+			case "unknown":
+				return Status.UNKNOWN;
+			default:
+				return null;
+		}
+	}
+
+	private class SolverWorker {
+		private final int workerId;
+		private final Deque<PendingQuery> inFlight = new ArrayDeque<PendingQuery>();
+		private Process process;
+		// scripts waiting to be written to the current process
+		private BlockingQueue<String> input;
+		private boolean shutdown = false;
+
+		SolverWorker(int workerId) throws IOException {
+			this.workerId = workerId;
+			start();
+		}
+
+		private void start() throws IOException {
+			ProcessBuilder builder = new ProcessBuilder(command);
+			builder.redirectErrorStream(true);
+			final Process started = builder.start();
+			final BlockingQueue<String> scripts = new LinkedBlockingQueue<String>();
+			process = started;
+			input = scripts;
+
+			Thread writer = new Thread("solver-writer-" + workerId) {
+				@Override
+				public void run() {
+					writeScripts(started, scripts);
+				}
+			};
+			writer.setDaemon(true);
+			writer.start();
+			Thread reader = new Thread("solver-worker-" + workerId) {
+				@Override
+				public void run() {
+					readResults(started);
+				}
+			};
+			reader.setDaemon(true);
+			reader.start();
+		}
+
+		synchronized int getLoad() {
+			return inFlight.size();
+		}
+
+		synchronized void send(PendingQuery query) {
+			inFlight.add(query);
+			input.add(query.script);
+		}
+
+		// runs without the worker's lock, which the reader needs to drain the output
+		private void writeScripts(Process target, BlockingQueue<String> scripts) {
+			BufferedWriter output = new BufferedWriter(new OutputStreamWriter(target.getOutputStream()));
+			try {
+				while (true) {
+					String script = scripts.take();
+					output.write(script);
+					output.flush();
+					if (script.equals(EXIT)) return;
+				}
+			} catch (IOException e) {
+				failed(target);
+			} catch (InterruptedException e) {
+				// the pool is gone
+			}
+		}
+
+		private void readResults(Process source) {
+			BufferedReader output = new BufferedReader(new InputStreamReader(source.getInputStream()));
+			Status status = null;
+			try {
+				String line;
+				while ((line = output.readLine()) != null) {
+					line = line.trim();
+					Status parsed = parseStatus(line);
+					if (parsed != null) {
+						status = parsed;
+					} else if (line.startsWith("(error")) {
+						if (PDGConstraint.debugMode) System.out.println("Solver worker " + workerId + ": " + line);
+					} else if (completeHead(line, status)) {
+						status = null;
+					}
+				}
+			} catch (IOException e) {
+				// treated like the process exiting
+			}
+			failed(source);
+		}
+
+		private synchronized boolean completeHead(String line, Status status) {
+			PendingQuery head = inFlight.peek();
+			if ((head == null) || !head.marker.equals(line)) return false;
+			inFlight.remove();
+			head.complete(status == null ? Status.UNKNOWN : status);
+			return true;
+		}
+
+		private synchronized void failed(Process failedProcess) {
+			// the reader of a replaced process reports its end as well; ignore it
+			if (failedProcess != process) return;
+			process.destroy();
+			input.add(EXIT);
+			if (shutdown) {
+				for (PendingQuery query : inFlight) query.complete(Status.UNKNOWN);
+				inFlight.clear();
+				return;
+			}
+
+			if (PDGConstraint.debugMode) System.out.println("Restarting solver worker " + workerId);
+			List<PendingQuery> resend = new ArrayList<PendingQuery>();
+			for (PendingQuery query : inFlight) {
+				if (++query.attempts > maxRetries) query.complete(Status.UNKNOWN);
+				else resend.add(query);
+			}
+			inFlight.clear();
+
+			try {
+				start();
+			} catch (IOException e) {
+				for (PendingQuery query : resend) query.complete(Status.UNKNOWN);
+				return;
+			}
+			for (PendingQuery query : resend) send(query);
+		}
+
+		synchronized void shutdown() {
+			shutdown = true;
+			input.add(EXIT);
+			process.destroy();
+		}
+	}
+
+	private static class PendingQuery implements Future<Status> {
+		private final String script;
+		private final String marker;
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile Status status;
+		private int attempts = 0;
+
+		PendingQuery(String script, String marker) {
+			this.script = script;
+			this.marker = marker;
+		}
+
+		synchronized void complete(Status result) {
+			if (done.getCount() == 0) return;
+			status = result;
+			done.countDown();
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return false;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+
+		@Override
+		public boolean isDone() {
+			return done.getCount() == 0;
+		}
+
+		@Override
+		public Status get() throws InterruptedException {
+			done.await();
+			return status;
+		}
+
+		@Override
+		public Status get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+			if (!done.await(timeout, unit)) throw new TimeoutException();
+			return status;
+		}
+	}
+}
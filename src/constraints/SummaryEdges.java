@@ -0,0 +1,192 @@
+package constraints;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import accrue.pdg.PDGEdge;
+import accrue.pdg.ProgramDependenceGraph;
+import accrue.pdg.node.AbstractPDGNode;
+import accrue.pdg.util.CallSiteEdgeLabel;
+import accrue.pdg.util.CallSiteEdgeLabel.SiteType;
+
+import constraints.CallSiteTable.CallSite;
+
+/**
+ * Summary edges (Horwitz, Reps and Binkley): an edge from an actual (or the caller's 
+ * pc) to a return node of the same call site whenever the callee's exit node for the 
+ * return depends on the formal for the actual, through any chain of calls. With them 
+ * a backward slice is context sensitive in two linear phases, see getSlice: calls are 
+ * stepped over by their summary edges while ascending to callers, and callees are only 
+ * descended into afterwards, without ascending again. Nodes of callers that can't 
+ * reach the target in the same calling context are left out.
+ */
+public class SummaryEdges {
+	private static Map<ProgramDependenceGraph, SummaryEdges> results = 
+					new WeakHashMap<ProgramDependenceGraph, SummaryEdges>();
+
+	private final ProgramDependenceGraph pdg;
+	// return node -> the caller nodes it summarizes
+	private final Map<Integer, Set<AbstractPDGNode>> summaries = 
+					new HashMap<Integer, Set<AbstractPDGNode>>();
+	private int summaryCount = 0;
+
+	public static synchronized SummaryEdges get(ProgramDependenceGraph pdg) {
+		SummaryEdges result = results.get(pdg);
+		if (result == null) {
+			result = new SummaryEdges(pdg);
+			results.put(pdg, result);
+		}
+		return result;
+	}
+
+	private SummaryEdges(ProgramDependenceGraph pdg) {
+		this.pdg = pdg;
+		computeSummaries();
+		if (PDGConstraint.debugMode) System.out.println("Summary edges: " + summaryCount);
+	}
+
+	/**
+	 * @return the caller nodes of the return node's call site that its value or pc 
+	 * depends on through the callee
+	 */
+	public Set<AbstractPDGNode> getSummarySources(AbstractPDGNode returnNode) {
+		Set<AbstractPDGNode> sources = summaries.get(returnNode.getNodeId());
+		if (sources == null) return Collections.emptySet();
+		return sources;
+	}
+
+	/**
+	 * Finds the exit nodes each node of a callee reaches, following intraprocedural 
+	 * edges and the summary edges found so far. A formal reaching an exit gives a 
+	 * summary edge at every call site of the callee, which in turn lets the caller's 
+	 * nodes reach further.
+	 */
+	private void computeSummaries() {
+		CallSiteTable table = CallSiteTable.get(pdg);
+		// node -> exit nodes it reaches within its procedure
+		Map<Integer, Set<Integer>> pathEdges = new HashMap<Integer, Set<Integer>>();
+		Deque<int[]> workQueue = new ArrayDeque<int[]>();
+		
+		for (CallSite site : table.getSites()) {
+			for (AbstractPDGNode returnNode : site.getReturnNodes()) {
+				int exitId = site.getExit(returnNode).getNodeId();
+				addPathEdge(exitId, exitId, pathEdges, workQueue);
+			}
+		}
+		
+		while (!workQueue.isEmpty()) {
+			int[] pathEdge = workQueue.remove();
+			AbstractPDGNode node = pdg.getNodeById(pathEdge[0]);
+			int exitId = pathEdge[1];
+			
+			for (CallSite site : table.getCalleeSites(node)) {
+				AbstractPDGNode actual = getActual(site, node);
+				AbstractPDGNode returnNode = getReturn(site, exitId);
+				if ((actual == null) || (returnNode == null)) continue;
+				if (!addSummary(returnNode, actual)) continue;
+				// whatever reaches an exit from the return node now does from the actual too
+				Set<Integer> returnExits = pathEdges.get(returnNode.getNodeId());
+				if (returnExits == null) continue;
+				for (int returnExit : returnExits) {
+					addPathEdge(actual.getNodeId(), returnExit, pathEdges, workQueue);
+				}
+			}
+			
+			for (PDGEdge edge : pdg.incomingEdgesOf(node)) {
+				if (edge.getEdgeLabel() != null) continue;
+				addPathEdge(edge.getSource().getNodeId(), exitId, pathEdges, workQueue);
+			}
+			for (AbstractPDGNode source : getSummarySources(node)) {
+				addPathEdge(source.getNodeId(), exitId, pathEdges, workQueue);
+			}
+		}
+	}
+
+	private static void addPathEdge(int nodeId, int exitId, Map<Integer, Set<Integer>> pathEdges, 
+									Deque<int[]> workQueue) {
+		Set<Integer> exits = pathEdges.get(nodeId);
+		if (exits == null) {
+			exits = new HashSet<Integer>();
+			pathEdges.put(nodeId, exits);
+		}
+		if (exits.add(exitId)) workQueue.add(new int[] {nodeId, exitId});
+	}
+
+	private boolean addSummary(AbstractPDGNode returnNode, AbstractPDGNode source) {
+		Set<AbstractPDGNode> sources = summaries.get(returnNode.getNodeId());
+		if (sources == null) {
+			sources = new LinkedHashSet<AbstractPDGNode>();
+			summaries.put(returnNode.getNodeId(), sources);
+		}
+		if (!sources.add(source)) return false;
+		summaryCount++;
+		return true;
+	}
+
+	// the caller node passing the formal or entry pc at the site, or null
+	private static AbstractPDGNode getActual(CallSite site, AbstractPDGNode formal) {
+		if (formal.equals(site.getEntryPC())) return site.getCallerPC();
+		for (AbstractPDGNode actual : site.getActuals()) {
+			if (formal.equals(site.getFormal(actual))) return actual;
+		}
+		return null;
+	}
+
+	// the return node receiving the exit at the site, or null
+	private static AbstractPDGNode getReturn(CallSite site, int exitId) {
+		for (AbstractPDGNode returnNode : site.getReturnNodes()) {
+			if (site.getExit(returnNode).getNodeId() == exitId) return returnNode;
+		}
+		return null;
+	}
+
+	/**
+	 * The context-sensitive backward slice of the target. The first phase ascends to 
+	 * callers but steps over calls by their summary edges; the second descends into the 
+	 * callees of everything found, but doesn't ascend again.
+	 * 
+	 * @return ids of the nodes in the slice
+	 */
+	public Set<Integer> getSlice(int targetId) {
+		Set<Integer> slice = new HashSet<Integer>();
+		Deque<AbstractPDGNode> workQueue = new ArrayDeque<AbstractPDGNode>();
+		slice.add(targetId);
+		workQueue.add(pdg.getNodeById(targetId));
+		slicePhase(slice, workQueue, SiteType.ENTRY);
+		
+		for (int id : slice) {
+			workQueue.add(pdg.getNodeById(id));
+		}
+		slicePhase(slice, workQueue, SiteType.EXIT);
+		return slice;
+	}
+
+	/**
+	 * @param follow the labeled edges to follow backward: ENTRY edges ascend from 
+	 * formals to actuals, EXIT edges descend from return nodes to exits
+	 */
+	private void slicePhase(Set<Integer> slice, Deque<AbstractPDGNode> workQueue, SiteType follow) {
+		while (!workQueue.isEmpty()) {
+			AbstractPDGNode node = workQueue.remove();
+			List<AbstractPDGNode> predecessors = new ArrayList<AbstractPDGNode>();
+			for (PDGEdge edge : pdg.incomingEdgesOf(node)) {
+				CallSiteEdgeLabel label = edge.getEdgeLabel();
+				if ((label == null) || (label.getType() == follow)) 
+					predecessors.add(edge.getSource());
+			}
+			predecessors.addAll(getSummarySources(node));
+			for (AbstractPDGNode predecessor : predecessors) {
+				if (slice.add(predecessor.getNodeId())) workQueue.add(predecessor);
+			}
+		}
+	}
+}
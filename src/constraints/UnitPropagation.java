@@ -0,0 +1,151 @@
+package constraints;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.Expr;
+import com.microsoft.z3.Status;
+import com.microsoft.z3.Z3Exception;
+
+/**
+ * Boolean constant propagation over a constraint set. Every assertion must hold, so 
+ * values are pushed through equalities, implications, conjunctions and disjunctions 
+ * until nothing changes. This decides queries whose target pc variable is forced false 
+ * by a chain of equalities without creating a solver. Arithmetic atoms are treated 
+ * as unknown.
+ */
+public class UnitPropagation {
+	// boolean variable AST id -> value
+	private final Map<Integer, Boolean> assignment = new HashMap<Integer, Boolean>();
+	private boolean changed = false;
+
+	/**
+	 * @param assertions
+	 * @return UNSATISFIABLE or SATISFIABLE if propagation alone decides the assertions, 
+	 * 			UNKNOWN otherwise
+	 * @throws Z3Exception
+	 */
+	public static Status propagate(Set<BoolExpr> assertions) throws Z3Exception {
+		return new UnitPropagation().run(assertions);
+	}
+
+	private Status run(Set<BoolExpr> assertions) throws Z3Exception {
+		do {
+			changed = false;
+			for (BoolExpr assertion : assertions) {
+				Boolean value = eval(assertion);
+				if (value == null) {
+					if (!force(assertion, true)) return Status.UNSATISFIABLE;
+				} else if (!value) {
+					return Status.UNSATISFIABLE;
+				}
+			}
+		} while (changed);
+
+		for (BoolExpr assertion : assertions) {
+			if (!Boolean.TRUE.equals(eval(assertion))) return Status.UNKNOWN;
+		}
+		return Status.SATISFIABLE;
+	}
+
+	private static boolean isVar(Expr exp) throws Z3Exception {
+		return exp.IsConst() && exp.IsBool() && !exp.IsTrue() && !exp.IsFalse();
+	}
+
+	private static boolean isBoolEq(Expr exp) throws Z3Exception {
+		return (exp.IsEq() || exp.IsIff()) && (exp.NumArgs() == 2) && exp.Args()[0].IsBool();
+	}
+
+	// three valued evaluation under the current partial assignment; null is unknown
+	private Boolean eval(Expr exp) throws Z3Exception {
+		if (exp.IsTrue()) return true;
+		if (exp.IsFalse()) return false;
+		if (isVar(exp)) return assignment.get(exp.Id());
+		if (exp.IsNot()) {
+			Boolean arg = eval(exp.Args()[0]);
+			return (arg == null) ? null : !arg;
+		}
+		if (exp.IsAnd() || exp.IsOr()) {
+			boolean isAnd = exp.IsAnd();
+			boolean unknown = false;
+			for (Expr arg : exp.Args()) {
+				Boolean value = eval(arg);
+				if (value == null) unknown = true;
+				else if (value != isAnd) return !isAnd;
+			}
+			return unknown ? null : isAnd;
+		}
+		if (exp.IsImplies()) {
+			Boolean left = eval(exp.Args()[0]);
+			Boolean right = eval(exp.Args()[1]);
+			if (Boolean.FALSE.equals(left) || Boolean.TRUE.equals(right)) return true;
+			if ((left != null) && (right != null)) return false;
+			return null;
+		}
+		if (isBoolEq(exp) || exp.IsXor()) {
+			Boolean left = eval(exp.Args()[0]);
+			Boolean right = eval(exp.Args()[1]);
+			if ((left == null) || (right == null)) return null;
+			return exp.IsXor() ? !left.equals(right) : left.equals(right);
+		}
+		return null;
+	}
+
+	// makes exp evaluate to value; returns false on a conflict
+	private boolean force(Expr exp, boolean value) throws Z3Exception {
+		if (isVar(exp)) {
+			Boolean old = assignment.get(exp.Id());
+			if (old != null) return old == value;
+			assignment.put(exp.Id(), value);
+			changed = true;
+			return true;
+		}
+		if (exp.IsNot()) return force(exp.Args()[0], !value);
+		if (exp.IsAnd() || exp.IsOr()) {
+			// all arguments are decided by the value (and = true, or = false)
+			if (value == exp.IsAnd()) {
+				for (Expr arg : exp.Args()) {
+					if (!force(arg, value)) return false;
+				}
+				return true;
+			}
+			// otherwise one argument must take the value (a false and needs a false argument,
+			// a true or a true one); force it if it is the only candidate
+			Expr candidate = null;
+			for (Expr arg : exp.Args()) {
+				Boolean argValue = eval(arg);
+				if (argValue == null) {
+					if (candidate != null) return true;
+					candidate = arg;
+				} else if (argValue == value) {
+					return true;
+				}
+			}
+			if (candidate == null) return false;
+			return force(candidate, value);
+		}
+		if (exp.IsImplies()) {
+			Expr left = exp.Args()[0];
+			Expr right = exp.Args()[1];
+			if (!value) return force(left, true) && force(right, false);
+			if (Boolean.TRUE.equals(eval(left))) return force(right, true);
+			if (Boolean.FALSE.equals(eval(right))) return force(left, false);
+			return true;
+		}
+		if (isBoolEq(exp) || exp.IsXor()) {
+			// equal sides for eq = true and xor = false
+			boolean same = (value != exp.IsXor());
+			Expr left = exp.Args()[0];
+			Expr right = exp.Args()[1];
+			Boolean leftValue = eval(left);
+			if (leftValue != null) return force(right, same ? leftValue : !leftValue);
+			Boolean rightValue = eval(right);
+			if (rightValue != null) return force(left, same ? rightValue : !rightValue);
+			return true;
+		}
+		Boolean current = eval(exp);
+		return (current == null) || (current == value);
+	}
+}
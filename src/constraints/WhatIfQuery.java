@@ -0,0 +1,118 @@
+package constraints;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import accrue.pdg.ProgramDependenceGraph;
+import accrue.pdg.node.AbstractPDGNode;
+
+import com.microsoft.z3.BitVecExpr;
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Expr;
+import com.microsoft.z3.IntExpr;
+import com.microsoft.z3.Model;
+import com.microsoft.z3.Solver;
+import com.microsoft.z3.Status;
+import com.microsoft.z3.Z3Exception;
+
+/**
+ * Keeps the slice of a target node asserted in a live solver, so reachability can be 
+ * re-checked cheaply under changing assumptions about the values of named expression 
+ * nodes ("is the target reachable if password is in [40, 60]?"). Each assumption is 
+ * guarded by its own literal and only switched on through Check(assumptions), so the 
+ * slice is never re-encoded and the solver keeps what it learned between checks.
+ */
+public class WhatIfQuery {
+	private final Context ctx;
+	private final ProgramDependenceGraph pdg;
+	private final Solver solver;
+	private final Map<Integer, Expr> expNodeToZ3Var = new HashMap<Integer, Expr>();
+	// guard literals of the assumptions made so far, reused when an assumption is repeated
+	private final Map<String, BoolExpr> assumptionLiterals = new HashMap<String, BoolExpr>();
+	private final Set<BoolExpr> activeAssumptions = new LinkedHashSet<BoolExpr>();
+
+	public WhatIfQuery(int nodeID, ProgramDependenceGraph pdg, Context ctx) throws Z3Exception {
+		this.ctx = ctx;
+		this.pdg = pdg;
+		Set<BoolExpr> constraints = PDGConstraint.getConstraints(nodeID, pdg, ctx, 
+										new HashSet<Integer>(), 
+										new HashMap<Integer, BoolExpr>(), 
+										expNodeToZ3Var, 
+										new HashMap<Integer, BoolExpr>());
+		solver = ConstraintCheck.getSolver(ctx, constraints);
+		for (BoolExpr constraint : constraints)
+			solver.Assert(constraint);
+	}
+
+	public boolean assumeValue(String name, long value) throws Z3Exception {
+		return assumeRange(name, value, value);
+	}
+
+	/**
+	 * Assumes lo <= value <= hi for every encoded expression node assigning the given 
+	 * name, e.g. "password" for a node "password = ...".
+	 * 
+	 * @return false if no numeric expression node in the slice has the name
+	 */
+	public boolean assumeRange(String name, long lo, long hi) throws Z3Exception {
+		String key = name + " in [" + lo + ", " + hi + "]";
+		BoolExpr literal = assumptionLiterals.get(key);
+		if (literal == null) {
+			List<BoolExpr> ranges = new ArrayList<BoolExpr>();
+			for (Map.Entry<Integer, Expr> entry : expNodeToZ3Var.entrySet()) {
+				AbstractPDGNode node = pdg.getNodeById(entry.getKey());
+				if (!name.equals(Expression.getParentNodeName(node.getName()))) continue;
+				BoolExpr range = getRange(node, entry.getValue(), lo, hi);
+				if (range != null) ranges.add(range);
+			}
+			if (ranges.isEmpty()) {
+				if (PDGConstraint.debugMode) System.out.println("No encoded expression node named " + name);
+				return false;
+			}
+			literal = ctx.MkBoolConst("assume_" + assumptionLiterals.size());
+			solver.Assert(ctx.MkImplies(literal, ctx.MkAnd(ranges.toArray(new BoolExpr[ranges.size()]))));
+			assumptionLiterals.put(key, literal);
+		}
+		activeAssumptions.add(literal);
+		return true;
+	}
+
+	public void clearAssumptions() {
+		activeAssumptions.clear();
+	}
+
+	public Status check() throws Z3Exception {
+		return solver.Check(activeAssumptions.toArray(new Expr[activeAssumptions.size()]));
+	}
+
+	/**
+	 * Only valid after check() returned SATISFIABLE.
+	 */
+	public Model getModel() throws Z3Exception {
+		return solver.Model();
+	}
+
+	private BoolExpr getRange(AbstractPDGNode node, Expr var, long lo, long hi) throws Z3Exception {
+		if (var.IsInt()) {
+			IntExpr intVar = (IntExpr) var;
+			return ctx.MkAnd(new BoolExpr[] {ctx.MkGe(intVar, ctx.MkInt(lo)), 
+												ctx.MkLe(intVar, ctx.MkInt(hi))});
+		}
+		if (var.IsBV()) {
+			BitVecExpr bvVar = (BitVecExpr) var;
+			int width = Expression.getWidth(var);
+			BitVecExpr loVal = ctx.MkBV(lo, width);
+			BitVecExpr hiVal = ctx.MkBV(hi, width);
+			if (Expression.isUnsignedType(node.getJavaType()))
+				return ctx.MkAnd(new BoolExpr[] {ctx.MkBVUGE(bvVar, loVal), ctx.MkBVULE(bvVar, hiVal)});
+			return ctx.MkAnd(new BoolExpr[] {ctx.MkBVSGE(bvVar, loVal), ctx.MkBVSLE(bvVar, hiVal)});
+		}
+		return null;
+	}
+}
@@ -27,6 +27,21 @@ public class Z3Addons {
 		return ctx.MkConst(freshVar,int_type);
 	}
 	
+	public static Expr getFreshBitVecVar(Context ctx, int width) throws Z3Exception {
+        Sort bv_type = ctx.MkBitVecSort(width);
+
+		String freshVar = Integer.toString(freshVarCount);
+		freshVarCount++;
+		return ctx.MkConst(freshVar,bv_type);
+	}
+	
+	/**
+	 * The choice variable for a call site, named by the site so every encoding of the 
+	 * same site shares it.
+	 */
+	public static BoolExpr getCallSiteVar(Context ctx, int callSiteID) throws Z3Exception {
+		return ctx.MkBoolConst("site_" + callSiteID);
+	}
 	
 	public static BoolExpr andConstraints(BoolExpr oldConstraint, Context ctx, BoolExpr andConstraint) 
 			throws Z3Exception {
@@ -93,6 +108,19 @@ public class Z3Addons {
 		return false;
 	}
 	
+	/**
+	 * Number of disjuncts in a disjunction built by orConstraints.
+	 */
+	public static int countDisjuncts(BoolExpr orConstraint) throws Z3Exception {
+		if (orConstraint == null) return 0;
+		int count = 1;
+		while (orConstraint.IsOr()) {
+			orConstraint = (BoolExpr) orConstraint.Args()[0];
+			count++;
+		}
+		return count;
+	}
+	
 	public static BoolExpr removeConstraintContainingExp(BoolExpr orConstraint, 
 												BoolExpr exp, Context ctx) 
 														throws Z3Exception {
@@ -0,0 +1,23 @@
+package test.constraints.interprocedural;
+
+public class Recursion {
+    @SuppressWarnings("unused")
+	private static boolean y;
+	
+	public static void main(String[] args) {
+		if (even(4))
+			y = true;
+	}
+
+	public static boolean even(int x) {
+		if (x == 0)
+			return true;
+		return odd(x - 1);
+	}
+
+	public static boolean odd(int x) {
+		if (x == 0)
+			return false;
+		return even(x - 1);
+	}
+}
@@ -1,11 +1,25 @@
 package test.unit;
 
+import java.util.List;
+import java.util.Set;
+
 import accrue.pdg.ProgramDependenceGraph;
 import accrue.pdg.graph.PDGFactory;
 
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.Context;
 import com.microsoft.z3.Z3Exception;
 
+import constraints.Chop;
+import constraints.ConstraintCheck;
 import constraints.GraphConstraintInfo;
+import constraints.IncrementalSlice;
+import constraints.LoopUnroller;
+import constraints.PDGConstraint;
+import constraints.SinkQuery;
+import constraints.SlicePolicy;
+import constraints.SlicePolicy.LoopMode;
+import constraints.WhatIfQuery;
 
 public class ConstraintUnitTest {
 	private static String filename = "/Users/ramyarangan/Dropbox/Research/PLResearch/eclipseworkspace/pdg-constraints/tests";
@@ -22,6 +36,37 @@ public class ConstraintUnitTest {
 		if (test) GraphConstraintInfo.getAndCheckConstraints(pdg, id);
 	}
 	
+	// sets one of PDGConstraint's optional flags
+	private interface Flag {
+		void set(boolean on);
+	}
+	
+	/**
+	 * Checks the node with the flag off and on, and prints the verdict and constraint 
+	 * count of both; the flags only shrink the encoding, so the verdicts should agree.
+	 */
+	public static void compareWithFlag(String filename, int id, String flagName, 
+										Flag flag) throws Z3Exception {
+		ProgramDependenceGraph pdg = getPDGJSON(filename);
+		Context ctx = new Context();
+		Set<BoolExpr> offConstraints = PDGConstraint.getConstraints(id, pdg, ctx);
+		boolean offSat = ConstraintCheck.Check(ctx, offConstraints) != null;
+		Set<BoolExpr> onConstraints;
+		flag.set(true);
+		try {
+			onConstraints = PDGConstraint.getConstraints(id, pdg, ctx);
+		} finally {
+			flag.set(false);
+		}
+		boolean onSat = ConstraintCheck.Check(ctx, onConstraints) != null;
+		
+		System.out.println(flagName + " off: " + (offSat ? "SAT" : "UNSAT") + ", " + 
+							offConstraints.size() + " constraints");
+		System.out.println(flagName + " on: " + (onSat ? "SAT" : "UNSAT") + ", " + 
+							onConstraints.size() + " constraints");
+		if (offSat != onSat) System.out.println("MISMATCH: " + flagName + " changed the verdict");
+	}
+	
 	public static void testSeen() throws Z3Exception {
 		String testFile = "/pdg_test.constraints.basic.Seen.json.gz";
 		String phrase = "x = 1";
@@ -88,6 +133,15 @@ public class ConstraintUnitTest {
 		testAndPrintConstraints(testFile, phrase, 61, true);
 	}
 	
+	public static void testMultipleCallImprecision1SummaryEdges() throws Z3Exception {
+		String testFile = "/pdg_test.constraints.interprocedural.MultipleCallImprecision1.json.gz";
+		compareWithFlag(testFile, 61, "useSummaryEdges", new Flag() {
+			public void set(boolean on) {
+				PDGConstraint.useSummaryEdges = on;
+			}
+		});
+	}
+	
 	public static void testMultipleCallImprecision2() throws Z3Exception {
 		String testFile = "/pdg_test.constraints.interprocedural.MultipleCallImprecision2.json.gz";
 		String phrase = "y = 1";
@@ -112,6 +166,13 @@ public class ConstraintUnitTest {
 		testAndPrintConstraints(testFile, phrase, 60, true);
 	}
 	
+	public static void testRecursion() throws Z3Exception {
+		String testFile = "/pdg_test.constraints.interprocedural.Recursion.json.gz";
+		ProgramDependenceGraph pdg = getPDGJSON(testFile);
+		for (int id : GraphConstraintInfo.findMatchingNodeIds(pdg, "y = 1"))
+			GraphConstraintInfo.getAndCheckConstraints(pdg, id);
+	}
+	
 	public static void testWhileLoopUnseen() throws Z3Exception {
 		String testFile = "/pdg_test.constraints.loop.WhileLoopUnseen.json.gz";
 		String phrase = "x = 1";
@@ -130,6 +191,19 @@ public class ConstraintUnitTest {
 		testAndPrintConstraints(testFile, phrase, 45, true);
 	}
 	
+	public static void testWhileLoopSeenUnrolled() throws Z3Exception {
+		String testFile = "/pdg_test.constraints.loop.WhileLoopSeen.json.gz";
+		ProgramDependenceGraph pdg = getPDGJSON(testFile);
+		System.out.println("Reachable: " + LoopUnroller.check(45, pdg, new Context(), 4));
+	}
+	
+	public static void testWhileLoopSeenSummarized() throws Z3Exception {
+		String testFile = "/pdg_test.constraints.loop.WhileLoopSeen.json.gz";
+		ProgramDependenceGraph pdg = getPDGJSON(testFile);
+		GraphConstraintInfo.getAndCheckConstraints(pdg, 45, 
+										new SlicePolicy(null, -1, -1, LoopMode.SUMMARIZE));
+	}
+	
 	public static void testWhileLoopImprecision() throws Z3Exception {
 		String testFile = "/pdg_test.constraints.loop.WhileLoopImprecision.json.gz";
 		String phrase = "x = 1";
@@ -150,12 +224,73 @@ public class ConstraintUnitTest {
 		testAndPrintConstraints(testFile, phrase, 45, true);
 	}
 	
+	public static void testWhileLoopSeenNowUnrolled() throws Z3Exception {
+		String testFile = "/pdg_test.constraints.loop.WhileLoopSeenNow.json.gz";
+		ProgramDependenceGraph pdg = getPDGJSON(testFile);
+		System.out.println("Reachable: " + LoopUnroller.check(45, pdg, new Context(), 4));
+	}
+	
 	public static void testSimplePassword() throws Z3Exception {
 		String testFile = "/pdg_test.integration.SimplePassword.json.gz";
 		String phrase = "selfDestruct = 1";
 		testAndPrintConstraints(testFile, phrase, 127, true);
 	}
 	
+	public static void testSimplePasswordSinks() throws Z3Exception {
+		String testFile = "/pdg_test.integration.SimplePassword.json.gz";
+		ProgramDependenceGraph pdg = getPDGJSON(testFile);
+		List<Integer> sinks = GraphConstraintInfo.findMatchingNodeIds(pdg, "selfDestruct = 1");
+		Context ctx = new Context();
+		System.out.println("Reachable sinks: " + SinkQuery.findReachableSinks(sinks, pdg, ctx, true));
+	}
+	
+	public static void testSimplePasswordWhatIf() throws Z3Exception {
+		String testFile = "/pdg_test.integration.SimplePassword.json.gz";
+		ProgramDependenceGraph pdg = getPDGJSON(testFile);
+		WhatIfQuery query = new WhatIfQuery(127, pdg, new Context());
+		for (int lo = 0; lo < 100; lo += 20) {
+			query.clearAssumptions();
+			if (!query.assumeRange("password", lo, lo + 20)) {
+				System.out.println("FAILED: no encoded node assigns password");
+				return;
+			}
+			System.out.println("password in [" + lo + ", " + (lo + 20) + "]: " + query.check());
+		}
+	}
+	
+	public static void testSimplePasswordPruned() throws Z3Exception {
+		String testFile = "/pdg_test.integration.SimplePassword.json.gz";
+		compareWithFlag(testFile, 127, "pruneIrrelevantValues", new Flag() {
+			public void set(boolean on) {
+				PDGConstraint.pruneIrrelevantValues = on;
+			}
+		});
+	}
+	
+	public static void testSimplePasswordSkipCalls() throws Z3Exception {
+		String testFile = "/pdg_test.integration.SimplePassword.json.gz";
+		compareWithFlag(testFile, 127, "skipIrrelevantCalls", new Flag() {
+			public void set(boolean on) {
+				PDGConstraint.skipIrrelevantCalls = on;
+			}
+		});
+	}
+	
+	public static void testSimplePasswordChop() throws Z3Exception {
+		String testFile = "/pdg_test.integration.SimplePassword.json.gz";
+		ProgramDependenceGraph pdg = getPDGJSON(testFile);
+		List<Integer> sources = GraphConstraintInfo.findMatchingNodeIds(pdg, "password");
+		System.out.println("password may influence selfDestruct: " + 
+								Chop.mayInfluence(sources, 127, pdg, new Context()));
+	}
+	
+	public static void testSimplePasswordIncremental() throws Z3Exception {
+		String testFile = "/pdg_test.integration.SimplePassword.json.gz";
+		ProgramDependenceGraph pdg = getPDGJSON(testFile);
+		System.out.println("Reachable: " + IncrementalSlice.check(127, pdg, new Context(), 
+														SlicePolicy.LEGACY, 10));
+	}
+	
 	public static void testBasic() throws Z3Exception {
 		testSeen();
 		testUnseen();
@@ -174,21 +309,32 @@ public class ConstraintUnitTest {
 		testOneCallOneArg();
 		testMultipleCallDisjunction();
 		testMultipleCallImprecision1();
+		testMultipleCallImprecision1SummaryEdges();
 		testMultipleCallImprecision2();
 		testMultipleCallImprecision3();
 		testMultipleCallSeen();
 		testMultipleCallUnseen();
+		testRecursion();
 	}
 
 	public static void testLoop() throws Z3Exception {
 		testWhileLoopUnseen();
 		testWhileLoopSeen();
+		testWhileLoopSeenUnrolled();
+		testWhileLoopSeenSummarized();
 		testWhileLoopSeenNow();
+		testWhileLoopSeenNowUnrolled();
 		testWhileLoopImprecision();
 	}
 	
 	public static void testIntegration() throws Z3Exception {
 		testSimplePassword();
+		testSimplePasswordSinks();
+		testSimplePasswordWhatIf();
+		testSimplePasswordIncremental();
+		testSimplePasswordChop();
+		testSimplePasswordPruned();
+		testSimplePasswordSkipCalls();
 	}
 	
 	public static void main(String[] args) throws Z3Exception {